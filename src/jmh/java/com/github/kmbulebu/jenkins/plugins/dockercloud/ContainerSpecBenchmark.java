@@ -0,0 +1,47 @@
+package com.github.kmbulebu.jenkins.plugins.dockercloud;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jenkins.model.Jenkins;
+
+/**
+ * Building the container spec for an image config, once per provisioning batch. The image resolution is served
+ * from the image cache, as it is for all but the first batch in each cache window.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContainerSpecBenchmark extends JenkinsState {
+
+	private DockerImage dockerImage;
+
+	@Override
+	List<DockerImage> createImages() throws IOException {
+		dockerImage = createImage("spec", "linux docker java8");
+		return Collections.singletonList(dockerImage);
+	}
+
+	@Override
+	void setUp(Jenkins jenkins) throws Exception {
+		ContainerSpec.build(dockerClient, dockerCloud, endpoint, dockerImage, false);
+	}
+
+	@Benchmark
+	public ContainerSpec build() throws Exception {
+		return ContainerSpec.build(dockerClient, dockerCloud, endpoint, dockerImage, false);
+	}
+
+}
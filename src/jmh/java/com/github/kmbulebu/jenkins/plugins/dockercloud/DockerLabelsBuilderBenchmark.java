@@ -0,0 +1,43 @@
+package com.github.kmbulebu.jenkins.plugins.dockercloud;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building the labels put on every container.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DockerLabelsBuilderBenchmark {
+
+	private String cloudName = "Docker Cloud East";
+
+	private String imageName = "Java 8 Maven Builder";
+
+	private String labelString = "linux docker java8 maven large";
+
+	@Benchmark
+	public Map<String, String> build() {
+		return new DockerLabelsBuilder().cloudName(cloudName).imageName(imageName).labelString(labelString).standby(false).build();
+	}
+
+	@Benchmark
+	public Map<String, String> buildStandby() {
+		return new DockerLabelsBuilder().cloudName(cloudName).imageName(imageName).labelString(labelString).standby(true).build();
+	}
+
+}
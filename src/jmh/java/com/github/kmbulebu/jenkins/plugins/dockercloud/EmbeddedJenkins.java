@@ -0,0 +1,42 @@
+package com.github.kmbulebu.jenkins.plugins.dockercloud;
+
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import jenkins.model.Jenkins;
+
+/**
+ * A Jenkins instance started outside of JUnit, for benchmarks and load tests.
+ *
+ * Label parsing, slaves and the cloud's background threads all need a running Jenkins, so it is started the same
+ * way a test would start it.
+ */
+final class EmbeddedJenkins {
+
+	private final JenkinsRule jenkinsRule = new JenkinsRule();
+
+	private EmbeddedJenkins() {
+	}
+
+	static EmbeddedJenkins start(Class<?> owner) throws Throwable {
+		final EmbeddedJenkins embedded = new EmbeddedJenkins();
+		// JenkinsRule takes its test description from JUnit. The statement it returns is not used.
+		embedded.jenkinsRule.apply(new Statement() {
+			@Override
+			public void evaluate() {
+			}
+		}, Description.createSuiteDescription(owner));
+		embedded.jenkinsRule.before();
+		return embedded;
+	}
+
+	Jenkins getJenkins() {
+		return jenkinsRule.jenkins;
+	}
+
+	void stop() throws Exception {
+		jenkinsRule.after();
+	}
+
+}
@@ -0,0 +1,79 @@
+package com.github.kmbulebu.jenkins.plugins.dockercloud;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.ObjectMapperProvider;
+import com.spotify.docker.client.messages.ContainerCreation;
+import com.spotify.docker.client.messages.ImageInfo;
+
+/**
+ * In-process stand-in for a Docker daemon that answers the calls made while provisioning, without any I/O.
+ *
+ * Images always exist, containers are created and started instantly, and the events stream stays silent until
+ * the calling thread is interrupted. Any other call fails, so a benchmark that strays off the provisioning path
+ * is noticed rather than measured.
+ */
+final class FakeDockerClient implements InvocationHandler {
+
+	private static final String IMAGE_JSON = "{\"Id\":\"sha256:4f1f3fb0e0c5f2a5f1b7a9a0b5e2d2c8a4f6e9d3b1c7a5e8f2d4b6c9a1e3f5d7\","
+			+ "\"Parent\":\"\",\"Comment\":\"\",\"Created\":\"2017-06-01T00:00:00Z\",\"Container\":\"\","
+			+ "\"ContainerConfig\":{},\"DockerVersion\":\"17.05.0-ce\",\"Author\":\"\",\"Config\":{\"User\":\"jenkins\"},"
+			+ "\"Architecture\":\"amd64\",\"Os\":\"linux\",\"Size\":0,\"VirtualSize\":0}";
+
+	private final ImageInfo imageInfo;
+
+	private final AtomicLong containerIds = new AtomicLong();
+
+	private FakeDockerClient() throws IOException {
+		this.imageInfo = ObjectMapperProvider.objectMapper().readValue(IMAGE_JSON, ImageInfo.class);
+	}
+
+	static DockerClient create() throws IOException {
+		return (DockerClient) Proxy.newProxyInstance(DockerClient.class.getClassLoader(), new Class<?>[] {DockerClient.class}, new FakeDockerClient());
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		switch (method.getName()) {
+		case "listContainers":
+			return Collections.emptyList();
+		case "inspectImage":
+			return imageInfo;
+		case "createContainer":
+			return ContainerCreation.builder().id(nextContainerId()).build();
+		case "startContainer":
+		case "stopContainer":
+		case "killContainer":
+		case "removeContainer":
+		case "pull":
+		case "close":
+			return null;
+		case "ping":
+			return "OK";
+		case "events":
+			// Never any events. Blocks like an idle stream until the inventory's thread is interrupted.
+			Thread.sleep(Long.MAX_VALUE);
+			return null;
+		case "hashCode":
+			return System.identityHashCode(proxy);
+		case "equals":
+			return proxy == args[0];
+		case "toString":
+			return "FakeDockerClient";
+		default:
+			throw new UnsupportedOperationException("Fake Docker client does not implement " + method.getName() + ".");
+		}
+	}
+
+	private String nextContainerId() {
+		// Container ids are 64 hex characters. Slave names use the first 12, so keep those unique.
+		return String.format("%012x%052d", containerIds.incrementAndGet(), 0);
+	}
+
+}
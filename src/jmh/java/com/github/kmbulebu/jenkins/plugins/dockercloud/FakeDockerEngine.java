@@ -0,0 +1,682 @@
+package com.github.kmbulebu.jenkins.plugins.dockercloud;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A stand-in for the Docker Engine API, served over HTTP on the loopback interface.
+ *
+ * It implements the calls this plugin makes: listing, creating, starting, stopping, killing, inspecting and
+ * removing containers, inspecting and pulling images, exec create, start and inspect, info and the events stream.
+ * Containers only exist in memory. Every operation can be given a latency and a failure rate, so caps and thread
+ * counts can be tuned against a slow or flaky daemon without one. The engine also counts running containers and
+ * remembers the peak, which load tests compare with the configured caps.
+ */
+final class FakeDockerEngine {
+
+	/**
+	 * The API calls the engine serves, each with its own latency and failure rate.
+	 */
+	enum Operation {
+		PING, INFO, LIST_CONTAINERS, CREATE_CONTAINER, INSPECT_CONTAINER, START_CONTAINER, STOP_CONTAINER,
+		KILL_CONTAINER, REMOVE_CONTAINER, INSPECT_IMAGE, PULL_IMAGE, EXEC_CREATE, EXEC_START, EXEC_INSPECT, EVENTS
+	}
+
+	private static final Pattern VERSION_PREFIX = Pattern.compile("^/v[0-9.]+(/.*)$");
+
+	private static final Pattern CONTAINER_ACTION = Pattern.compile("^/containers/([^/]+)/(json|start|stop|kill|exec)$");
+
+	private static final Pattern CONTAINER = Pattern.compile("^/containers/([^/]+)$");
+
+	private static final Pattern EXEC_ACTION = Pattern.compile("^/exec/([^/]+)/(start|json)$");
+
+	private static final Pattern IMAGE_INSPECT = Pattern.compile("^/images/(.+)/json$");
+
+	private static final String BODY_ATTRIBUTE = FakeDockerEngine.class.getName() + ".body";
+
+	private static final long MEMORY_TOTAL = 64L * 1024 * 1024 * 1024;
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	private final HttpServer server;
+
+	private final ExecutorService handlers;
+
+	private final ConcurrentMap<String, FakeContainer> containers = new ConcurrentHashMap<String, FakeContainer>();
+
+	private final Set<String> images = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	private final Set<String> execs = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	private final List<EventSubscriber> subscribers = new CopyOnWriteArrayList<EventSubscriber>();
+
+	private final AtomicLongArray latencyMillis = new AtomicLongArray(Operation.values().length);
+
+	/**
+	 * Failure rates in parts per million, so they can be kept in an atomic array.
+	 */
+	private final AtomicLongArray failuresPerMillion = new AtomicLongArray(Operation.values().length);
+
+	private final AtomicLongArray requests = new AtomicLongArray(Operation.values().length);
+
+	private final AtomicLong injectedFailures = new AtomicLong();
+
+	private final AtomicLong ids = new AtomicLong();
+
+	private final AtomicInteger running = new AtomicInteger();
+
+	private final AtomicInteger peakRunning = new AtomicInteger();
+
+	private volatile boolean stopped;
+
+	private FakeDockerEngine() throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		// The events stream holds its thread for as long as the client listens.
+		handlers = Executors.newCachedThreadPool();
+		server.setExecutor(handlers);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					route(exchange);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (RuntimeException e) {
+					respond(exchange, 500, error(e.toString()));
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Start an engine on a free loopback port.
+	 */
+	static FakeDockerEngine start() throws IOException {
+		final FakeDockerEngine engine = new FakeDockerEngine();
+		engine.server.start();
+		return engine;
+	}
+
+	void stop() {
+		stopped = true;
+		server.stop(0);
+		handlers.shutdownNow();
+	}
+
+	/**
+	 * @return The URI to configure as the cloud's Docker URL.
+	 */
+	String getUri() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	/**
+	 * Delay every call of an operation before it is served.
+	 */
+	void setLatency(Operation operation, long millis) {
+		latencyMillis.set(operation.ordinal(), millis);
+	}
+
+	/**
+	 * Fail a share of an operation's calls with a server error.
+	 *
+	 * @param rate Between 0, never, and 1, always.
+	 */
+	void setFailureRate(Operation operation, double rate) {
+		failuresPerMillion.set(operation.ordinal(), Math.round(Math.max(0, Math.min(1, rate)) * 1000000));
+	}
+
+	/**
+	 * Make an image present without pulling it.
+	 */
+	void addImage(String imageName) {
+		images.add(normalizeImage(imageName));
+	}
+
+	int getRunningCount() {
+		return running.get();
+	}
+
+	/**
+	 * @return The most containers running at once since the engine started.
+	 */
+	int getPeakRunningCount() {
+		return peakRunning.get();
+	}
+
+	/**
+	 * @return Containers created and not removed yet, running or not.
+	 */
+	int getContainerCount() {
+		return containers.size();
+	}
+
+	long getRequestCount(Operation operation) {
+		return requests.get(operation.ordinal());
+	}
+
+	long getInjectedFailureCount() {
+		return injectedFailures.get();
+	}
+
+	private void route(HttpExchange exchange) throws IOException, InterruptedException {
+		final String method = exchange.getRequestMethod();
+		String path = exchange.getRequestURI().getPath();
+		final Matcher versioned = VERSION_PREFIX.matcher(path);
+		if (versioned.matches()) {
+			path = versioned.group(1);
+		}
+		final Map<String, String> query = parseQuery(exchange.getRequestURI());
+
+		Matcher matcher;
+		if ("GET".equals(method) && "/_ping".equals(path)) {
+			if (begin(exchange, Operation.PING)) {
+				respondText(exchange, 200, "OK");
+			}
+		} else if ("GET".equals(method) && "/info".equals(path)) {
+			if (begin(exchange, Operation.INFO)) {
+				info(exchange);
+			}
+		} else if ("GET".equals(method) && "/containers/json".equals(path)) {
+			if (begin(exchange, Operation.LIST_CONTAINERS)) {
+				listContainers(exchange, query);
+			}
+		} else if ("POST".equals(method) && "/containers/create".equals(path)) {
+			if (begin(exchange, Operation.CREATE_CONTAINER)) {
+				createContainer(exchange);
+			}
+		} else if ((matcher = CONTAINER_ACTION.matcher(path)).matches()) {
+			final String id = matcher.group(1);
+			final String action = matcher.group(2);
+			if ("json".equals(action)) {
+				if (begin(exchange, Operation.INSPECT_CONTAINER)) {
+					inspectContainer(exchange, id);
+				}
+			} else if ("start".equals(action)) {
+				if (begin(exchange, Operation.START_CONTAINER)) {
+					startContainer(exchange, id);
+				}
+			} else if ("stop".equals(action)) {
+				if (begin(exchange, Operation.STOP_CONTAINER)) {
+					stopContainer(exchange, id);
+				}
+			} else if ("kill".equals(action)) {
+				if (begin(exchange, Operation.KILL_CONTAINER)) {
+					stopContainer(exchange, id);
+				}
+			} else if (begin(exchange, Operation.EXEC_CREATE)) {
+				execCreate(exchange, id);
+			}
+		} else if ("DELETE".equals(method) && (matcher = CONTAINER.matcher(path)).matches()) {
+			if (begin(exchange, Operation.REMOVE_CONTAINER)) {
+				removeContainer(exchange, matcher.group(1));
+			}
+		} else if ((matcher = EXEC_ACTION.matcher(path)).matches()) {
+			if ("start".equals(matcher.group(2))) {
+				if (begin(exchange, Operation.EXEC_START)) {
+					execStart(exchange, matcher.group(1));
+				}
+			} else if (begin(exchange, Operation.EXEC_INSPECT)) {
+				execInspect(exchange, matcher.group(1));
+			}
+		} else if ("POST".equals(method) && "/images/create".equals(path)) {
+			if (begin(exchange, Operation.PULL_IMAGE)) {
+				pullImage(exchange, query);
+			}
+		} else if ("GET".equals(method) && (matcher = IMAGE_INSPECT.matcher(path)).matches()) {
+			if (begin(exchange, Operation.INSPECT_IMAGE)) {
+				inspectImage(exchange, matcher.group(1));
+			}
+		} else if ("GET".equals(method) && "/events".equals(path)) {
+			if (begin(exchange, Operation.EVENTS)) {
+				events(exchange, query);
+			}
+		} else {
+			respond(exchange, 404, error("Fake Docker engine does not implement " + method + " " + path + "."));
+		}
+	}
+
+	/**
+	 * Count the call, apply its latency and maybe fail it.
+	 *
+	 * @return False if a failure was injected and already sent.
+	 */
+	private boolean begin(HttpExchange exchange, Operation operation) throws IOException, InterruptedException {
+		// Read before any latency is applied, as a real daemon would have it by then.
+		exchange.setAttribute(BODY_ATTRIBUTE, readFully(exchange.getRequestBody()));
+		requests.incrementAndGet(operation.ordinal());
+		final long latency = latencyMillis.get(operation.ordinal());
+		if (latency > 0) {
+			Thread.sleep(latency);
+		}
+		final long failureRate = failuresPerMillion.get(operation.ordinal());
+		if (failureRate > 0 && ThreadLocalRandom.current().nextLong(1000000) < failureRate) {
+			injectedFailures.incrementAndGet();
+			respond(exchange, 500, error("Injected failure of " + operation + "."));
+			return false;
+		}
+		return true;
+	}
+
+	private void info(HttpExchange exchange) throws IOException {
+		final Map<String, Object> info = new LinkedHashMap<String, Object>();
+		info.put("ID", "FAKE");
+		info.put("Name", "fake-docker");
+		info.put("Containers", containers.size());
+		info.put("ContainersRunning", running.get());
+		info.put("Images", images.size());
+		info.put("NCPU", Runtime.getRuntime().availableProcessors());
+		info.put("MemTotal", MEMORY_TOTAL);
+		info.put("ServerVersion", "17.05.0-ce");
+		info.put("OperatingSystem", "Fake Docker Engine");
+		respond(exchange, 200, info);
+	}
+
+	private void listContainers(HttpExchange exchange, Map<String, String> query) throws IOException {
+		final boolean all = "1".equals(query.get("all")) || "true".equals(query.get("all"));
+		final Map<String, String> labels = parseLabelFilters(query.get("filters"));
+		final List<Map<String, Object>> listed = new ArrayList<Map<String, Object>>();
+		for (FakeContainer container : containers.values()) {
+			if ((all || container.running) && container.hasLabels(labels)) {
+				final Map<String, Object> json = new LinkedHashMap<String, Object>();
+				json.put("Id", container.id);
+				json.put("Names", Collections.singletonList("/" + container.id.substring(0, 12)));
+				json.put("Image", container.image);
+				json.put("ImageID", imageId(container.image));
+				json.put("Command", "cat");
+				json.put("Created", TimeUnit.MILLISECONDS.toSeconds(container.createdMillis));
+				json.put("State", container.running ? "running" : "exited");
+				json.put("Status", container.running ? "Up" : "Exited (0)");
+				json.put("Ports", Collections.emptyList());
+				json.put("Labels", container.labels);
+				listed.add(json);
+			}
+		}
+		respond(exchange, 200, listed);
+	}
+
+	private void createContainer(HttpExchange exchange) throws IOException {
+		final JsonNode config = readBody(exchange);
+		final String image = config.path("Image").asText();
+		if (!image.startsWith("sha256:") && !images.contains(normalizeImage(image))) {
+			respond(exchange, 404, error("No such image: " + image));
+			return;
+		}
+		final Map<String, String> labels = new HashMap<String, String>();
+		final Iterator<Map.Entry<String, JsonNode>> fields = config.path("Labels").fields();
+		while (fields.hasNext()) {
+			final Map.Entry<String, JsonNode> field = fields.next();
+			labels.put(field.getKey(), field.getValue().asText());
+		}
+		final String id = nextId();
+		containers.put(id, new FakeContainer(id, image, labels));
+		final Map<String, Object> created = new LinkedHashMap<String, Object>();
+		created.put("Id", id);
+		created.put("Warnings", null);
+		respond(exchange, 201, created);
+	}
+
+	private void inspectContainer(HttpExchange exchange, String id) throws IOException {
+		final FakeContainer container = containers.get(id);
+		if (container == null) {
+			respond(exchange, 404, error("No such container: " + id));
+			return;
+		}
+		final Map<String, Object> state = new LinkedHashMap<String, Object>();
+		state.put("Status", container.running ? "running" : "exited");
+		state.put("Running", container.running);
+		state.put("Paused", false);
+		state.put("Restarting", false);
+		state.put("Pid", container.running ? 1 : 0);
+		state.put("ExitCode", 0);
+		final Map<String, Object> config = new LinkedHashMap<String, Object>();
+		config.put("Image", container.image);
+		config.put("Labels", container.labels);
+		final Map<String, Object> json = new LinkedHashMap<String, Object>();
+		json.put("Id", container.id);
+		json.put("Name", "/" + container.id.substring(0, 12));
+		json.put("Image", imageId(container.image));
+		json.put("State", state);
+		json.put("Config", config);
+		respond(exchange, 200, json);
+	}
+
+	private void startContainer(HttpExchange exchange, String id) throws IOException {
+		final FakeContainer container = containers.get(id);
+		if (container == null) {
+			respond(exchange, 404, error("No such container: " + id));
+			return;
+		}
+		if (container.setRunning(true)) {
+			final int now = running.incrementAndGet();
+			int peak = peakRunning.get();
+			while (now > peak && !peakRunning.compareAndSet(peak, now)) {
+				peak = peakRunning.get();
+			}
+			publish(container, "start");
+		}
+		respondEmpty(exchange, 204);
+	}
+
+	private void stopContainer(HttpExchange exchange, String id) throws IOException {
+		final FakeContainer container = containers.get(id);
+		if (container == null) {
+			respond(exchange, 404, error("No such container: " + id));
+			return;
+		}
+		stopped(container);
+		respondEmpty(exchange, 204);
+	}
+
+	private void removeContainer(HttpExchange exchange, String id) throws IOException {
+		final FakeContainer container = containers.remove(id);
+		if (container == null) {
+			respond(exchange, 404, error("No such container: " + id));
+			return;
+		}
+		stopped(container);
+		publish(container, "destroy");
+		respondEmpty(exchange, 204);
+	}
+
+	private void stopped(FakeContainer container) {
+		if (container.setRunning(false)) {
+			running.decrementAndGet();
+			publish(container, "die");
+		}
+	}
+
+	private void execCreate(HttpExchange exchange, String containerId) throws IOException {
+		final FakeContainer container = containers.get(containerId);
+		if (container == null || !container.running) {
+			respond(exchange, container == null ? 404 : 409, error("Container " + containerId + " is not running."));
+			return;
+		}
+		final String id = nextId();
+		execs.add(id);
+		final Map<String, Object> created = new LinkedHashMap<String, Object>();
+		created.put("Id", id);
+		respond(exchange, 201, created);
+	}
+
+	private void execStart(HttpExchange exchange, String id) throws IOException {
+		if (!execs.contains(id)) {
+			respond(exchange, 404, error("No such exec instance: " + id));
+			return;
+		}
+		// A tty exec streams raw output. The fake process prints a line and exits.
+		final byte[] output = "Fake Docker engine does not run processes.\n".getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/vnd.docker.raw-stream");
+		exchange.sendResponseHeaders(200, output.length);
+		exchange.getResponseBody().write(output);
+	}
+
+	private void execInspect(HttpExchange exchange, String id) throws IOException {
+		if (!execs.contains(id)) {
+			respond(exchange, 404, error("No such exec instance: " + id));
+			return;
+		}
+		final Map<String, Object> json = new LinkedHashMap<String, Object>();
+		json.put("ID", id);
+		json.put("Running", false);
+		json.put("ExitCode", 0);
+		json.put("OpenStdin", false);
+		json.put("OpenStderr", true);
+		json.put("OpenStdout", true);
+		respond(exchange, 200, json);
+	}
+
+	private void pullImage(HttpExchange exchange, Map<String, String> query) throws IOException {
+		final String fromImage = query.get("fromImage");
+		final String tag = query.get("tag");
+		final String image = tag == null || tag.isEmpty() ? fromImage : fromImage + ":" + tag;
+		images.add(normalizeImage(image));
+		final Map<String, Object> progress = new LinkedHashMap<String, Object>();
+		progress.put("status", "Status: Downloaded newer image for " + image);
+		respond(exchange, 200, progress);
+	}
+
+	private void inspectImage(HttpExchange exchange, String image) throws IOException {
+		if (!image.startsWith("sha256:") && !images.contains(normalizeImage(image))) {
+			respond(exchange, 404, error("No such image: " + image));
+			return;
+		}
+		final Map<String, Object> config = new LinkedHashMap<String, Object>();
+		config.put("User", "jenkins");
+		final Map<String, Object> json = new LinkedHashMap<String, Object>();
+		json.put("Id", imageId(image));
+		json.put("Parent", "");
+		json.put("Comment", "");
+		json.put("Created", "2017-06-01T00:00:00Z");
+		json.put("Container", "");
+		json.put("ContainerConfig", config);
+		json.put("DockerVersion", "17.05.0-ce");
+		json.put("Author", "");
+		json.put("Config", config);
+		json.put("Architecture", "amd64");
+		json.put("Os", "linux");
+		json.put("Size", 0);
+		json.put("VirtualSize", 0);
+		respond(exchange, 200, json);
+	}
+
+	private void events(HttpExchange exchange, Map<String, String> query) throws IOException, InterruptedException {
+		final EventSubscriber subscriber = new EventSubscriber(parseLabelFilters(query.get("filters")));
+		subscribers.add(subscriber);
+		try {
+			exchange.getResponseHeaders().set("Content-Type", "application/json");
+			exchange.sendResponseHeaders(200, 0);
+			final OutputStream body = exchange.getResponseBody();
+			body.flush();
+			while (!stopped) {
+				final Map<String, Object> event = subscriber.queue.poll(1, TimeUnit.SECONDS);
+				if (event != null) {
+					body.write(mapper.writeValueAsBytes(event));
+					body.write('\n');
+					body.flush();
+				}
+			}
+		} catch (IOException e) {
+			// The client went away.
+		} finally {
+			subscribers.remove(subscriber);
+		}
+	}
+
+	private void publish(FakeContainer container, String action) {
+		if (subscribers.isEmpty()) {
+			return;
+		}
+		final long nowMillis = System.currentTimeMillis();
+		final Map<String, Object> actor = new LinkedHashMap<String, Object>();
+		actor.put("ID", container.id);
+		actor.put("Attributes", container.labels);
+		final Map<String, Object> event = new LinkedHashMap<String, Object>();
+		event.put("Type", "container");
+		event.put("Action", action);
+		event.put("Actor", actor);
+		event.put("status", action);
+		event.put("id", container.id);
+		event.put("from", container.image);
+		event.put("time", TimeUnit.MILLISECONDS.toSeconds(nowMillis));
+		event.put("timeNano", TimeUnit.MILLISECONDS.toNanos(nowMillis));
+		for (EventSubscriber subscriber : subscribers) {
+			if (container.hasLabels(subscriber.labels)) {
+				subscriber.queue.add(event);
+			}
+		}
+	}
+
+	private JsonNode readBody(HttpExchange exchange) throws IOException {
+		final byte[] body = (byte[]) exchange.getAttribute(BODY_ATTRIBUTE);
+		return body == null || body.length == 0 ? mapper.createObjectNode() : mapper.readTree(body);
+	}
+
+	private static byte[] readFully(InputStream body) throws IOException {
+		try {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[8192];
+			int read;
+			while ((read = body.read(buffer)) != -1) {
+				bytes.write(buffer, 0, read);
+			}
+			return bytes.toByteArray();
+		} finally {
+			body.close();
+		}
+	}
+
+	private void respond(HttpExchange exchange, int status, Object json) throws IOException {
+		final byte[] body = mapper.writeValueAsBytes(json);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, body.length);
+		exchange.getResponseBody().write(body);
+	}
+
+	private static void respondText(HttpExchange exchange, int status, String text) throws IOException {
+		final byte[] body = text.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain");
+		exchange.sendResponseHeaders(status, body.length);
+		exchange.getResponseBody().write(body);
+	}
+
+	private static void respondEmpty(HttpExchange exchange, int status) throws IOException {
+		exchange.sendResponseHeaders(status, -1);
+	}
+
+	private static Map<String, Object> error(String message) {
+		return Collections.<String, Object>singletonMap("message", message);
+	}
+
+	private Map<String, String> parseLabelFilters(String filters) throws IOException {
+		final Map<String, String> labels = new HashMap<String, String>();
+		if (filters == null || filters.isEmpty()) {
+			return labels;
+		}
+		for (JsonNode filter : mapper.readTree(filters).path("label")) {
+			final String text = filter.asText();
+			final int equals = text.indexOf('=');
+			if (equals < 0) {
+				labels.put(text, null);
+			} else {
+				labels.put(text.substring(0, equals), text.substring(equals + 1));
+			}
+		}
+		return labels;
+	}
+
+	private static Map<String, String> parseQuery(URI uri) throws IOException {
+		final Map<String, String> query = new HashMap<String, String>();
+		final String raw = uri.getRawQuery();
+		if (raw == null) {
+			return query;
+		}
+		for (String pair : raw.split("&")) {
+			final int equals = pair.indexOf('=');
+			if (equals < 0) {
+				query.put(URLDecoder.decode(pair, "UTF-8"), "");
+			} else {
+				query.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"), URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+			}
+		}
+		return query;
+	}
+
+	private static String normalizeImage(String image) {
+		return image.lastIndexOf(':') > image.lastIndexOf('/') ? image : image + ":latest";
+	}
+
+	private static String imageId(String image) {
+		return image.startsWith("sha256:") ? image : String.format("sha256:%064x", normalizeImage(image).hashCode() & 0xffffffffL);
+	}
+
+	private String nextId() {
+		// Ids are 64 hex characters. Slave names use the first 12, so keep those unique.
+		return String.format("%012x%052x", ids.incrementAndGet(), 0);
+	}
+
+	private static final class FakeContainer {
+
+		private final String id;
+		private final String image;
+		private final Map<String, String> labels;
+		private final long createdMillis = System.currentTimeMillis();
+		private volatile boolean running;
+
+		private FakeContainer(String id, String image, Map<String, String> labels) {
+			this.id = id;
+			this.image = image;
+			this.labels = Collections.unmodifiableMap(labels);
+		}
+
+		/**
+		 * @return True if the state changed.
+		 */
+		private synchronized boolean setRunning(boolean running) {
+			if (this.running == running) {
+				return false;
+			}
+			this.running = running;
+			return true;
+		}
+
+		private boolean hasLabels(Map<String, String> filter) {
+			for (Map.Entry<String, String> entry : filter.entrySet()) {
+				final String value = labels.get(entry.getKey());
+				if (value == null || (entry.getValue() != null && !entry.getValue().equals(value))) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+	}
+
+	private static final class EventSubscriber {
+
+		private final Map<String, String> labels;
+		private final LinkedBlockingQueue<Map<String, Object>> queue = new LinkedBlockingQueue<Map<String, Object>>();
+
+		private EventSubscriber(Map<String, String> labels) {
+			this.labels = labels;
+		}
+
+	}
+
+}
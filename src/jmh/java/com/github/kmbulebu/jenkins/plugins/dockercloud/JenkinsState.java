@@ -0,0 +1,79 @@
+package com.github.kmbulebu.jenkins.plugins.dockercloud;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.spotify.docker.client.DockerClient;
+
+import hudson.model.Node;
+import hudson.slaves.NodeProperty;
+import jenkins.model.Jenkins;
+
+/**
+ * Benchmark state holding a Jenkins instance for the whole trial, with a cloud whose primary endpoint is served by
+ * {@link FakeDockerClient}.
+ *
+ * Jenkins is left running between iterations, so only the provisioning code itself is measured.
+ */
+@State(Scope.Benchmark)
+public abstract class JenkinsState {
+
+	static final String FAKE_URI = "tcp://fake-docker:2375";
+
+	private EmbeddedJenkins embeddedJenkins;
+
+	DockerCloud dockerCloud;
+
+	DockerEndpoint endpoint;
+
+	DockerClient dockerClient;
+
+	@Setup(Level.Trial)
+	public final void startJenkins() throws Throwable {
+		embeddedJenkins = EmbeddedJenkins.start(getClass());
+
+		dockerCloud = new DockerCloud("benchmark", "", false, FAKE_URI, null, createImages(), "jenkins-");
+		dockerCloud.readResolve();
+		endpoint = dockerCloud.getPrimaryEndpoint();
+		dockerClient = FakeDockerClient.create();
+		DockerClientProvider.register(endpoint, dockerClient);
+		embeddedJenkins.getJenkins().clouds.add(dockerCloud);
+		setUp(embeddedJenkins.getJenkins());
+	}
+
+	@TearDown(Level.Trial)
+	public final void stopJenkins() throws Exception {
+		embeddedJenkins.stop();
+	}
+
+	/**
+	 * @return The cloud's image configs.
+	 */
+	abstract List<DockerImage> createImages() throws IOException;
+
+	/**
+	 * Called once Jenkins is running and the cloud is configured.
+	 */
+	void setUp(Jenkins jenkins) throws Exception {
+	}
+
+	static DockerImage createImage(String name, String labelString) throws IOException {
+		return createImage(name, labelString, "");
+	}
+
+	/**
+	 * @param instanceCapStr Blank for no cap.
+	 */
+	static DockerImage createImage(String name, String labelString, String instanceCapStr) throws IOException {
+		return new DockerImage(name, labelString, Node.Mode.EXCLUSIVE, instanceCapStr, "jenkinsci/jnlp-slave", "/home/jenkins",
+				false, false, null, 1024, true, 512, false, 0, false, null, null, Collections.<NodeProperty<?>>emptyList());
+	}
+
+}
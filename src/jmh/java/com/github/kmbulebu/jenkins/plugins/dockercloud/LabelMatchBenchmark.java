@@ -0,0 +1,68 @@
+package com.github.kmbulebu.jenkins.plugins.dockercloud;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+import hudson.model.Label;
+import jenkins.model.Jenkins;
+
+/**
+ * Matching a queued item's label against the image configs, which NodeProvisioner does on every tick for every
+ * cloud. The expression only matches the last image config, so the uncached lookup scans them all.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LabelMatchBenchmark extends JenkinsState {
+
+	@Param({"10", "100", "1000"})
+	public int imageCount;
+
+	@Param({"simple", "expression"})
+	public String labelKind;
+
+	private Label label;
+
+	@Override
+	List<DockerImage> createImages() throws IOException {
+		final List<DockerImage> images = new ArrayList<DockerImage>(imageCount);
+		for (int i = 0; i < imageCount; i++) {
+			images.add(createImage("image-" + i, "linux docker pool-" + i + (i % 2 == 0 ? " java8" : " java7")));
+		}
+		return images;
+	}
+
+	@Override
+	void setUp(Jenkins jenkins) {
+		final int last = imageCount - 1;
+		if ("simple".equals(labelKind)) {
+			label = Label.get("pool-" + last);
+		} else {
+			label = Label.parseExpression("linux && pool-" + last + " && (java8 || java7) && !windows");
+		}
+	}
+
+	@Benchmark
+	public boolean canProvision() {
+		return dockerCloud.canProvision(label);
+	}
+
+	@Benchmark
+	public DockerImage findUncached() {
+		return dockerCloud.findDockerImageForLabelUncached(label);
+	}
+
+}
@@ -0,0 +1,58 @@
+package com.github.kmbulebu.jenkins.plugins.dockercloud;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+import hudson.model.Label;
+import hudson.slaves.NodeProvisioner.PlannedNode;
+import jenkins.model.Jenkins;
+
+/**
+ * A provision call end to end: cap checks, placement, reservations and creating every planned node's container on
+ * the fake daemon. Each node's container is released afterwards so the caps never fill up.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProvisionBenchmark extends JenkinsState {
+
+	@Param({"1", "10", "50"})
+	public int excessWorkload;
+
+	private Label label;
+
+	@Override
+	List<DockerImage> createImages() throws IOException {
+		return Collections.singletonList(createImage("provision", "linux docker java8"));
+	}
+
+	@Override
+	void setUp(Jenkins jenkins) {
+		label = Label.get("java8");
+	}
+
+	@Benchmark
+	public int provision() throws Exception {
+		final Collection<PlannedNode> plannedNodes = dockerCloud.provision(label, excessWorkload);
+		final ContainerInventory inventory = ContainerInventory.forEndpoint(dockerCloud, endpoint);
+		for (PlannedNode plannedNode : plannedNodes) {
+			inventory.stopping(((DockerSlave) plannedNode.future.get()).getDockerId());
+		}
+		return plannedNodes.size();
+	}
+
+}
@@ -0,0 +1,226 @@
+package com.github.kmbulebu.jenkins.plugins.dockercloud;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.kmbulebu.jenkins.plugins.dockercloud.FakeDockerEngine.Operation;
+
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.slaves.NodeProvisioner.PlannedNode;
+import jenkins.model.Jenkins;
+
+/**
+ * Drives a cloud with many concurrent simulated builds against a {@link FakeDockerEngine} and reports throughput,
+ * latency percentiles and whether the instance caps held.
+ *
+ * Each simulated build asks the cloud for a node the way NodeProvisioner would, retrying while the caps are met,
+ * holds the node for the build time and then terminates it. Slaves are never launched, so the figures cover
+ * provisioning and termination only. Everything runs on the loopback interface.
+ *
+ * Settings are system properties: load.builds, load.concurrency, load.cloudCap, load.imageCap, load.buildMs,
+ * load.retryMs, load.latencyMs, load.pullLatencyMs, load.failureRate and load.timeoutSec.
+ */
+public final class ProvisioningLoadTest {
+
+	private final int builds = Integer.getInteger("load.builds", 500);
+	private final int concurrency = Integer.getInteger("load.concurrency", 200);
+	private final int cloudCap = Integer.getInteger("load.cloudCap", 50);
+	private final int imageCap = Integer.getInteger("load.imageCap", 0);
+	private final long buildMillis = Long.getLong("load.buildMs", 200);
+	private final long retryMillis = Long.getLong("load.retryMs", 50);
+	private final long latencyMillis = Long.getLong("load.latencyMs", 20);
+	private final long pullLatencyMillis = Long.getLong("load.pullLatencyMs", 2000);
+	private final double failureRate = Double.parseDouble(System.getProperty("load.failureRate", "0"));
+	private final long timeoutSeconds = Long.getLong("load.timeoutSec", 600);
+
+	private final long[] provisionNanos = new long[builds];
+	private final long[] terminateNanos = new long[builds];
+	private final AtomicInteger completed = new AtomicInteger();
+	private final AtomicInteger abandoned = new AtomicInteger();
+	private final AtomicLong capRejections = new AtomicLong();
+	private final AtomicLong failedNodes = new AtomicLong();
+	private final AtomicInteger liveNodes = new AtomicInteger();
+	private final AtomicInteger peakLiveNodes = new AtomicInteger();
+
+	private ProvisioningLoadTest() {
+	}
+
+	public static void main(String[] args) throws Throwable {
+		new ProvisioningLoadTest().run();
+		// Jenkins and the cloud leave non-daemon threads behind.
+		System.exit(0);
+	}
+
+	private void run() throws Throwable {
+		final FakeDockerEngine engine = FakeDockerEngine.start();
+		for (Operation operation : Arrays.asList(Operation.LIST_CONTAINERS, Operation.INSPECT_IMAGE, Operation.CREATE_CONTAINER,
+				Operation.START_CONTAINER, Operation.REMOVE_CONTAINER)) {
+			engine.setLatency(operation, latencyMillis);
+		}
+		engine.setLatency(Operation.PULL_IMAGE, pullLatencyMillis);
+		for (Operation operation : Arrays.asList(Operation.CREATE_CONTAINER, Operation.START_CONTAINER, Operation.REMOVE_CONTAINER)) {
+			engine.setFailureRate(operation, failureRate);
+		}
+
+		final EmbeddedJenkins embeddedJenkins = EmbeddedJenkins.start(ProvisioningLoadTest.class);
+		try {
+			final DockerImage dockerImage = JenkinsState.createImage("load", "linux docker", imageCap > 0 ? String.valueOf(imageCap) : "");
+			final DockerCloud dockerCloud = new DockerCloud("load-test", String.valueOf(cloudCap), false, engine.getUri(), null,
+					Collections.singletonList(dockerImage), "jenkins-");
+			dockerCloud.readResolve();
+			final Jenkins jenkins = embeddedJenkins.getJenkins();
+			jenkins.clouds.add(dockerCloud);
+
+			final long startNanos = System.nanoTime();
+			simulateBuilds(dockerCloud, Label.get("docker"));
+			final long elapsedNanos = System.nanoTime() - startNanos;
+
+			final long drainStartNanos = System.nanoTime();
+			final ContainerReaper reaper = ContainerReaper.forCloud(dockerCloud);
+			while (reaper.getBacklog() > 0 && System.nanoTime() - drainStartNanos < TimeUnit.SECONDS.toNanos(timeoutSeconds)) {
+				Thread.sleep(10);
+			}
+			final long drainNanos = System.nanoTime() - drainStartNanos;
+
+			report(engine, dockerCloud, elapsedNanos, drainNanos);
+		} finally {
+			embeddedJenkins.stop();
+			engine.stop();
+		}
+	}
+
+	private void simulateBuilds(final DockerCloud dockerCloud, final Label label) throws InterruptedException {
+		final ExecutorService builders = Executors.newFixedThreadPool(concurrency);
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+		final CountDownLatch finished = new CountDownLatch(builds);
+		for (int i = 0; i < builds; i++) {
+			final int build = i;
+			builders.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						simulateBuild(dockerCloud, label, build, deadline);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} catch (Exception e) {
+						System.err.println("Build " + build + " failed. " + e);
+						abandoned.incrementAndGet();
+					} finally {
+						finished.countDown();
+					}
+				}
+			});
+		}
+		finished.await(timeoutSeconds, TimeUnit.SECONDS);
+		builders.shutdownNow();
+	}
+
+	private void simulateBuild(DockerCloud dockerCloud, Label label, int build, long deadline) throws Exception {
+		final long queuedNanos = System.nanoTime();
+		DockerSlave slave = null;
+		while (slave == null) {
+			if (System.nanoTime() > deadline) {
+				abandoned.incrementAndGet();
+				return;
+			}
+			final Collection<PlannedNode> plannedNodes = dockerCloud.provision(label, 1);
+			if (plannedNodes.isEmpty()) {
+				capRejections.incrementAndGet();
+				Thread.sleep(retryMillis);
+				continue;
+			}
+			for (PlannedNode plannedNode : plannedNodes) {
+				try {
+					final Node node = plannedNode.future.get();
+					if (slave == null) {
+						slave = (DockerSlave) node;
+					} else {
+						// Never asked for more than one, but do not leak any extra.
+						((DockerSlave) node)._terminate(TaskListener.NULL);
+					}
+				} catch (ExecutionException e) {
+					failedNodes.incrementAndGet();
+				}
+			}
+		}
+		provisionNanos[build] = System.nanoTime() - queuedNanos;
+
+		final int live = liveNodes.incrementAndGet();
+		int peak = peakLiveNodes.get();
+		while (live > peak && !peakLiveNodes.compareAndSet(peak, live)) {
+			peak = peakLiveNodes.get();
+		}
+		Thread.sleep(buildMillis);
+		liveNodes.decrementAndGet();
+
+		final long terminateStartNanos = System.nanoTime();
+		slave._terminate(TaskListener.NULL);
+		terminateNanos[build] = System.nanoTime() - terminateStartNanos;
+		completed.incrementAndGet();
+	}
+
+	private void report(FakeDockerEngine engine, DockerCloud dockerCloud, long elapsedNanos, long drainNanos) {
+		final double elapsedSeconds = elapsedNanos / 1e9;
+		final int effectiveCap = imageCap > 0 ? Math.min(cloudCap, imageCap) : cloudCap;
+		System.out.println();
+		System.out.println("Provisioning load test");
+		System.out.println("  Builds:                 " + builds + " (" + concurrency + " concurrent, " + buildMillis + " ms each)");
+		System.out.println("  Caps:                   cloud " + cloudCap + (imageCap > 0 ? ", image " + imageCap : ""));
+		System.out.println("  Daemon:                 " + latencyMillis + " ms per call, " + pullLatencyMillis + " ms per pull, " + failureRate + " failure rate");
+		System.out.println("  Completed:              " + completed.get() + ", abandoned " + abandoned.get());
+		System.out.println(String.format("  Elapsed:                %.2f s", elapsedSeconds));
+		System.out.println(String.format("  Throughput:             %.1f builds/s", completed.get() / elapsedSeconds));
+		System.out.println("  Provision latency (ms): " + percentiles(provisionNanos));
+		System.out.println("  Terminate latency (ms): " + percentiles(terminateNanos));
+		System.out.println("  Removal drain:          " + TimeUnit.NANOSECONDS.toMillis(drainNanos) + " ms");
+		System.out.println("  Cap rejections:         " + capRejections.get());
+		System.out.println("  Failed nodes:           " + failedNodes.get() + " (" + engine.getInjectedFailureCount() + " injected daemon failures)");
+		System.out.println("  Peak live nodes:        " + peakLiveNodes.get() + " (overshoot " + Math.max(0, peakLiveNodes.get() - effectiveCap) + ")");
+		System.out.println("  Peak daemon containers: " + engine.getPeakRunningCount() + " running, including those waiting for removal");
+		System.out.println("  Left on daemon:         " + engine.getContainerCount());
+		System.out.println("  Daemon calls:           create " + engine.getRequestCount(Operation.CREATE_CONTAINER)
+				+ ", start " + engine.getRequestCount(Operation.START_CONTAINER)
+				+ ", remove " + engine.getRequestCount(Operation.REMOVE_CONTAINER)
+				+ ", list " + engine.getRequestCount(Operation.LIST_CONTAINERS)
+				+ ", inspect image " + engine.getRequestCount(Operation.INSPECT_IMAGE)
+				+ ", pull " + engine.getRequestCount(Operation.PULL_IMAGE));
+		System.out.println("  Reaper:                 " + dockerCloud.getContainerReaper().getRemovedCount() + " removed, "
+				+ dockerCloud.getContainerReaper().getFailedCount() + " given up");
+	}
+
+	/**
+	 * @return p50, p95, p99 and max of the recorded durations, skipping builds that never got a node.
+	 */
+	private static String percentiles(long[] nanos) {
+		final List<Long> recorded = new ArrayList<Long>(nanos.length);
+		for (long value : nanos) {
+			if (value > 0) {
+				recorded.add(value);
+			}
+		}
+		if (recorded.isEmpty()) {
+			return "none recorded";
+		}
+		Collections.sort(recorded);
+		return "p50 " + millis(recorded, 0.50) + ", p95 " + millis(recorded, 0.95) + ", p99 " + millis(recorded, 0.99)
+				+ ", max " + TimeUnit.NANOSECONDS.toMillis(recorded.get(recorded.size() - 1));
+	}
+
+	private static long millis(List<Long> sorted, double quantile) {
+		final int index = (int) Math.min(sorted.size() - 1, Math.ceil(quantile * sorted.size()) - 1);
+		return TimeUnit.NANOSECONDS.toMillis(sorted.get(Math.max(0, index)));
+	}
+
+}
@@ -0,0 +1,194 @@
+package com.github.kmbulebu.jenkins.plugins.dockercloud;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.DockerClient.RemoveContainerParam;
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.exceptions.NotFoundException;
+import com.spotify.docker.client.exceptions.VolumeNotFoundException;
+import com.spotify.docker.client.messages.ContainerConfig;
+import com.spotify.docker.client.messages.ContainerCreation;
+import com.spotify.docker.client.messages.HostConfig;
+import com.spotify.docker.client.messages.Volume;
+
+import hudson.model.Slave;
+import hudson.remoting.Launcher;
+
+/**
+ * Keeps a copy of the master's slave jar in a read only volume on each Docker host, so containers do not
+ * download it from the master on every launch.
+ *
+ * The volume name carries a checksum of the jar, so a Jenkins upgrade that changes the remoting version gets a
+ * fresh volume. A marker file is written after the jar, and the launch command only uses the cached jar when the
+ * marker exists, falling back to downloading it otherwise. A volume found without its marker, left by a copy that
+ * failed or was cut short by a restart, is populated again. Hosts are prepared independently of each other.
+ */
+final class AgentJarCache {
+
+	private static final Logger LOGGER = Logger.getLogger(AgentJarCache.class.getName());
+
+	static final String MOUNT_PATH = "/jenkins-agent";
+
+	static final String JAR_PATH = MOUNT_PATH + "/slave.jar";
+
+	static final String READY_MARKER_PATH = MOUNT_PATH + "/ready";
+
+	private static final String VOLUME_NAME_PREFIX = "jenkins-agent-";
+
+	private static final String REMOTING_VERSION_LABEL = "jenkins.remoting_version";
+
+	/**
+	 * Docker hosts, by connection key, whose volume is known to exist during the life of this master.
+	 */
+	private static final ConcurrentMap<String, String> PREPARED = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * Locks by connection key, so a slow host does not hold up the others.
+	 */
+	private static final ConcurrentMap<String, Object> LOCKS = new ConcurrentHashMap<String, Object>();
+
+	private static byte[] slaveJar;
+
+	private static String volumeName;
+
+	private AgentJarCache() {
+	}
+
+	/**
+	 * Make sure the agent jar volume exists on the endpoint's Docker host.
+	 *
+	 * @param helperImage An image already present on the host, used to populate the volume.
+	 * @return A bind for the volume, to mount it read only at {@link #MOUNT_PATH}.
+	 */
+	static String prepare(DockerClient dockerClient, DockerCloud dockerCloud, DockerEndpoint endpoint, String helperImage) throws DockerException, InterruptedException, IOException {
+		final String connectionKey = endpoint.getConnectionKey();
+		final String name = getVolumeName();
+		if (!name.equals(PREPARED.get(connectionKey))) {
+			synchronized (lockFor(connectionKey)) {
+				if (!name.equals(PREPARED.get(connectionKey))) {
+					if (!volumeExists(dockerClient, name)) {
+						LOGGER.info("Creating agent jar volume " + name + " on " + endpoint.getUri() + ".");
+						final Map<String, String> labels = new HashMap<String, String>(new DockerLabelsBuilder().cloudName(dockerCloud.getName()).build());
+						labels.put(REMOTING_VERSION_LABEL, Launcher.VERSION);
+						dockerClient.createVolume(Volume.builder().name(name).labels(labels).build());
+					}
+					populate(dockerClient, dockerCloud, endpoint, name, helperImage);
+					PREPARED.put(connectionKey, name);
+				}
+			}
+		}
+		return name + ":" + MOUNT_PATH + ":ro";
+	}
+
+	private static Object lockFor(String connectionKey) {
+		Object lock = LOCKS.get(connectionKey);
+		if (lock == null) {
+			final Object created = new Object();
+			lock = LOCKS.putIfAbsent(connectionKey, created);
+			if (lock == null) {
+				lock = created;
+			}
+		}
+		return lock;
+	}
+
+	private static boolean volumeExists(DockerClient dockerClient, String name) throws DockerException, InterruptedException {
+		try {
+			dockerClient.inspectVolume(name);
+			return true;
+		} catch (VolumeNotFoundException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Copy the jar and then the marker into the volume, unless the marker is already there.
+	 */
+	private static void populate(DockerClient dockerClient, DockerCloud dockerCloud, DockerEndpoint endpoint, String name, String helperImage) throws DockerException, InterruptedException, IOException {
+		// Volumes can only be read and written through a container. This one is never started.
+		final ContainerCreation helper = dockerClient.createContainer(ContainerConfig.builder()
+				.image(helperImage)
+				.cmd("true")
+				.labels(new DockerLabelsBuilder().cloudName(dockerCloud.getName()).build())
+				.hostConfig(HostConfig.builder().binds(name + ":" + MOUNT_PATH).build())
+				.build());
+		Path jarDir = null;
+		Path markerDir = null;
+		try {
+			if (hasReadyMarker(dockerClient, helper.id())) {
+				return;
+			}
+			LOGGER.info("Copying the agent jar into volume " + name + " on " + endpoint.getUri() + ".");
+			jarDir = Files.createTempDirectory("slave-jar");
+			Files.write(jarDir.resolve("slave.jar"), getSlaveJar());
+			dockerClient.copyToContainer(jarDir, helper.id(), MOUNT_PATH);
+			// Only written once the jar is complete, so a container never runs a partial copy.
+			markerDir = Files.createTempDirectory("slave-jar-ready");
+			Files.write(markerDir.resolve("ready"), getVolumeName().getBytes("UTF-8"));
+			dockerClient.copyToContainer(markerDir, helper.id(), MOUNT_PATH);
+		} finally {
+			if (jarDir != null) {
+				deleteQuietly(jarDir.resolve("slave.jar"));
+				deleteQuietly(jarDir);
+			}
+			if (markerDir != null) {
+				deleteQuietly(markerDir.resolve("ready"));
+				deleteQuietly(markerDir);
+			}
+			dockerClient.removeContainer(helper.id(), RemoveContainerParam.forceKill(true));
+		}
+		LOGGER.info("Agent jar volume " + name + " is ready on " + endpoint.getUri() + ".");
+	}
+
+	private static boolean hasReadyMarker(DockerClient dockerClient, String helperId) throws DockerException, InterruptedException, IOException {
+		try (InputStream archive = dockerClient.archiveContainer(helperId, READY_MARKER_PATH)) {
+			return true;
+		} catch (NotFoundException e) {
+			return false;
+		}
+	}
+
+	private static synchronized byte[] getSlaveJar() throws IOException {
+		if (slaveJar == null) {
+			slaveJar = new Slave.JnlpJar("slave.jar").readFully();
+		}
+		return slaveJar;
+	}
+
+	static synchronized String getVolumeName() throws IOException {
+		if (volumeName == null) {
+			try {
+				final byte[] digest = MessageDigest.getInstance("SHA-256").digest(getSlaveJar());
+				final StringBuilder hex = new StringBuilder(VOLUME_NAME_PREFIX);
+				for (int i = 0; i < 8; i++) {
+					hex.append(String.format("%02x", digest[i]));
+				}
+				volumeName = hex.toString();
+			} catch (NoSuchAlgorithmException e) {
+				throw new IOException(e.getMessage(), e);
+			}
+		}
+		return volumeName;
+	}
+
+	private static void deleteQuietly(Path path) {
+		try {
+			Files.deleteIfExists(path);
+		} catch (IOException e) {
+			LOGGER.log(Level.FINE, "Could not delete " + path + ". " + e.getMessage(), e);
+		}
+	}
+
+}
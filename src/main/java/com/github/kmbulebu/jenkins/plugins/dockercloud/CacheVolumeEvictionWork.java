@@ -0,0 +1,42 @@
+package com.github.kmbulebu.jenkins.plugins.dockercloud;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import hudson.slaves.Cloud;
+import jenkins.model.Jenkins;
+
+/**
+ * Periodically evicts cache volumes that have gone unused too long or are over their cache's size limit.
+ */
+@Extension
+public class CacheVolumeEvictionWork extends AsyncPeriodicWork {
+
+	private static final String RECURRENCE_PERIOD_PROPERTY = CacheVolumeEvictionWork.class.getName() + ".recurrencePeriodMs";
+
+	public CacheVolumeEvictionWork() {
+		super("Docker cache volume eviction");
+	}
+
+	@Override
+	public long getRecurrencePeriod() {
+		return Long.getLong(RECURRENCE_PERIOD_PROPERTY, TimeUnit.MINUTES.toMillis(30));
+	}
+
+	@Override
+	protected void execute(TaskListener listener) throws IOException, InterruptedException {
+		final Jenkins jenkins = Jenkins.getInstance();
+		if (jenkins == null) {
+			return;
+		}
+		for (Cloud cloud : jenkins.clouds) {
+			if (cloud instanceof DockerCloud) {
+				CacheVolumes.forCloud((DockerCloud) cloud).evict((DockerCloud) cloud);
+			}
+		}
+	}
+
+}
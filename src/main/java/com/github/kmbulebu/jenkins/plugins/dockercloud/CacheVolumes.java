@@ -0,0 +1,718 @@
+package com.github.kmbulebu.jenkins.plugins.dockercloud;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.DockerClient.ExecCreateParam;
+import com.spotify.docker.client.DockerClient.ListContainersParam;
+import com.spotify.docker.client.DockerClient.ListVolumesParam;
+import com.spotify.docker.client.LogStream;
+import com.spotify.docker.client.exceptions.ConflictException;
+import com.spotify.docker.client.exceptions.DockerCertificateException;
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.exceptions.VolumeNotFoundException;
+import com.spotify.docker.client.messages.Container;
+import com.spotify.docker.client.messages.ContainerConfig;
+import com.spotify.docker.client.messages.ContainerMount;
+import com.spotify.docker.client.messages.ExecCreation;
+import com.spotify.docker.client.messages.Volume;
+import com.spotify.docker.client.messages.VolumeList;
+
+/**
+ * Named volumes that keep an image config's dependency caches, such as a Maven repository, across its short lived
+ * containers.
+ *
+ * Each cache of an image config is either one volume per Docker host shared read-write by all of its containers,
+ * or a pool of volumes per Docker host each leased to one container at a time. A lease is taken when a container is
+ * created and only given back once the container has been removed, so an exclusive volume is never mounted twice.
+ * Just before removal each leased volume is measured with du in the container. Idle volumes are evicted least
+ * recently used first while a cache's volumes on a host are over its size limit, and once unused for longer than
+ * its idle limit. Volumes carry the cloud, image config and cache labels, and containers list the volumes they lease,
+ * so both the volumes and the leases of surviving containers are found again after a restart. Managers are kept by cloud name so they survive the cloud being re-instantiated on a configuration save.
+ */
+public final class CacheVolumes {
+
+	private static final Logger LOGGER = Logger.getLogger(CacheVolumes.class.getName());
+
+	private static final String MEASURE_INTERVAL_PROPERTY = CacheVolumes.class.getName() + ".sharedMeasureIntervalMs";
+
+	private static final String VOLUME_NAME_PREFIX = "jenkins-cache-";
+
+	private static final Pattern CACHE_NAME_PATTERN = Pattern.compile("[a-zA-Z0-9][a-zA-Z0-9_.-]*");
+
+	private static final Pattern UNSAFE_CHARACTERS = Pattern.compile("[^a-zA-Z0-9_.-]");
+
+	private static final ConcurrentMap<String, CacheVolumes> MANAGERS = new ConcurrentHashMap<String, CacheVolumes>();
+
+	private final String cloudName;
+
+	/**
+	 * Volumes by endpoint, image config and cache.
+	 */
+	private final ConcurrentMap<String, Pool> pools = new ConcurrentHashMap<String, Pool>();
+
+	/**
+	 * Volumes held by each container, until it is removed.
+	 */
+	private final ConcurrentMap<String, Lease> leases = new ConcurrentHashMap<String, Lease>();
+
+	/**
+	 * URIs of the endpoints whose existing volumes have been listed.
+	 */
+	private final Set<String> discovered = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	private final AtomicLong evicted = new AtomicLong();
+
+	private CacheVolumes(String cloudName) {
+		this.cloudName = cloudName;
+	}
+
+	static CacheVolumes forCloud(DockerCloud dockerCloud) {
+		CacheVolumes cacheVolumes = MANAGERS.get(dockerCloud.getName());
+		if (cacheVolumes == null) {
+			final CacheVolumes created = new CacheVolumes(dockerCloud.getName());
+			cacheVolumes = MANAGERS.putIfAbsent(dockerCloud.getName(), created);
+			if (cacheVolumes == null) {
+				cacheVolumes = created;
+			}
+		}
+		return cacheVolumes;
+	}
+
+	/**
+	 * Forget the cache volumes of clouds that are no longer configured. The volumes stay on their Docker hosts.
+	 */
+	static void dropUnconfigured(Set<String> configuredClouds) {
+		MANAGERS.keySet().retainAll(configuredClouds);
+	}
+
+	/**
+	 * Lease the image config's cache volumes on an endpoint, creating any that do not exist yet.
+	 *
+	 * @return The lease, to attach to the created container or release if creating it fails. Null if the image config
+	 *         has no caches.
+	 */
+	Lease lease(DockerClient dockerClient, DockerCloud dockerCloud, DockerEndpoint endpoint, DockerImage dockerImage) throws DockerException, InterruptedException {
+		final List<Definition> definitions = dockerImage.getCacheVolumeDefinitions();
+		if (definitions.isEmpty()) {
+			return null;
+		}
+		discover(dockerClient, dockerCloud, endpoint);
+
+		final Lease lease = new Lease();
+		try {
+			for (Definition definition : definitions) {
+				final Pool pool = getPool(endpoint.getUri(), DockerLabelsBuilder.sanitize(dockerImage.getName()), definition.getName());
+				final CachedVolume volume = pool.acquire(definition.isExclusive());
+				lease.held.add(new Held(pool, volume, definition.getPath()));
+				create(dockerClient, volume);
+			}
+		} catch (DockerException | InterruptedException e) {
+			release(lease);
+			throw e;
+		}
+		return lease;
+	}
+
+	/**
+	 * Hold the lease's volumes until the container is removed.
+	 */
+	void attach(Lease lease, String containerId) {
+		leases.put(containerId, lease);
+	}
+
+	/**
+	 * Give back the volumes of a container that was never created.
+	 */
+	void release(Lease lease) {
+		for (Held held : lease.held) {
+			held.pool.release(held.volume);
+		}
+	}
+
+	/**
+	 * Measure the volumes a container holds. Called just before the container is removed.
+	 */
+	void measure(DockerClient dockerClient, String containerId) throws InterruptedException {
+		final Lease lease = leases.get(containerId);
+		if (lease == null) {
+			return;
+		}
+		final long sharedInterval = Long.getLong(MEASURE_INTERVAL_PROPERTY, TimeUnit.MINUTES.toMillis(10));
+		for (Held held : lease.held) {
+			final CachedVolume volume = held.volume;
+			// A shared volume is used by every build, so measuring it on each removal is wasted work.
+			if (volume.isShared() && System.currentTimeMillis() - volume.measuredMillis < sharedInterval) {
+				continue;
+			}
+			try {
+				final ExecCreation execCreation = dockerClient.execCreate(containerId, new String[] {"sh", "-c", "du -sk '" + held.path + "' 2>/dev/null"},
+						ExecCreateParam.user("0"), ExecCreateParam.attachStdout());
+				final String output;
+				try (LogStream stream = dockerClient.execStart(execCreation.id())) {
+					output = stream.readFully().trim();
+				}
+				final String[] fields = output.split("\\s+");
+				volume.sizeBytes = Long.parseLong(fields[0]) * 1024;
+				volume.measuredMillis = System.currentTimeMillis();
+			} catch (DockerException | NumberFormatException e) {
+				LOGGER.log(Level.FINE, "Could not measure cache volume " + volume.getName() + " in container " + containerId + ". " + e.getMessage(), e);
+			}
+		}
+	}
+
+	/**
+	 * Give back the volumes of a removed container, then evict from their caches if they are over the size limit.
+	 */
+	void released(DockerCloud dockerCloud, String containerId) {
+		final Lease lease = leases.remove(containerId);
+		if (lease == null) {
+			return;
+		}
+		release(lease);
+		for (Held held : lease.held) {
+			evict(dockerCloud, held.pool);
+		}
+	}
+
+	/**
+	 * Evict from every cache of the cloud.
+	 */
+	void evict(DockerCloud dockerCloud) {
+		for (Pool pool : pools.values()) {
+			evict(dockerCloud, pool);
+		}
+	}
+
+	private void evict(DockerCloud dockerCloud, Pool pool) {
+		final DockerEndpoint endpoint = dockerCloud.getEndpoint(pool.endpointUri);
+		if (endpoint == null) {
+			return;
+		}
+		final DockerImage dockerImage = findImage(dockerCloud, pool.imageLabel);
+		final boolean configured = dockerImage != null && dockerImage.getCacheVolumeDefinition(pool.cacheName) != null;
+		final long maxBytes = configured ? dockerImage.getCacheVolumeMaxSizeMB() * 1024 * 1024 : 0;
+		final long maxIdleMillis = configured ? TimeUnit.DAYS.toMillis(dockerImage.getCacheVolumeIdleDays()) : 0;
+
+		final List<CachedVolume> victims = pool.evict(!configured, maxBytes, maxIdleMillis);
+		if (victims.isEmpty()) {
+			return;
+		}
+		final DockerClient dockerClient;
+		try {
+			dockerClient = dockerCloud.getDockerClient(endpoint);
+		} catch (DockerCertificateException e) {
+			LOGGER.log(Level.WARNING, "Could not evict cache volumes on endpoint " + endpoint.getUri() + ". " + e.getMessage(), e);
+			pool.restore(victims);
+			return;
+		}
+		for (CachedVolume victim : victims) {
+			try {
+				LOGGER.info("Evicting cache volume " + victim.getName() + " from endpoint " + endpoint.getUri() + (configured ? "." : ". Its cache is no longer configured."));
+				dockerClient.removeVolume(victim.getName());
+				evicted.incrementAndGet();
+			} catch (VolumeNotFoundException e) {
+				LOGGER.fine("Cache volume " + victim.getName() + " is already gone.");
+			} catch (ConflictException e) {
+				LOGGER.fine("Cache volume " + victim.getName() + " is still in use. Keeping it.");
+				pool.restore(Collections.singletonList(victim));
+			} catch (DockerException e) {
+				LOGGER.log(Level.WARNING, "Could not evict cache volume " + victim.getName() + ". " + e.getMessage(), e);
+				pool.restore(Collections.singletonList(victim));
+			} catch (InterruptedException e) {
+				pool.restore(Collections.singletonList(victim));
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	private static DockerImage findImage(DockerCloud dockerCloud, String imageLabel) {
+		for (DockerImage dockerImage : dockerCloud.getImages()) {
+			if (DockerLabelsBuilder.sanitize(dockerImage.getName()).equals(imageLabel)) {
+				return dockerImage;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Adopt the cloud's cache volumes left on the endpoint by an earlier run of this master, along with the leases of
+	 * the containers still mounting them, so an exclusive volume in use is not leased again.
+	 *
+	 * @throws DockerException If the volumes or containers could not be listed. Nothing is leased on the endpoint
+	 *         until they have been, as a volume could otherwise be leased twice.
+	 */
+	private void discover(DockerClient dockerClient, DockerCloud dockerCloud, DockerEndpoint endpoint) throws DockerException, InterruptedException {
+		if (discovered.contains(endpoint.getUri())) {
+			return;
+		}
+		synchronized (discovered) {
+			if (discovered.contains(endpoint.getUri())) {
+				return;
+			}
+			final String cloudLabel = DockerLabelsBuilder.sanitize(dockerCloud.getName());
+			final VolumeList volumeList = dockerClient.listVolumes(ListVolumesParam.filter("label", DockerLabelsBuilder.CLOUD_NAME + "=" + cloudLabel));
+			// Every container of the cloud, running or not, as one that is not removed yet still holds its volumes.
+			final List<Container> containers = dockerClient.listContainers(ListContainersParam.allContainers(),
+					ListContainersParam.withLabel(DockerLabelsBuilder.CLOUD_NAME, cloudLabel));
+
+			final Map<String, Pool> poolByVolume = new HashMap<String, Pool>();
+			if (volumeList.volumes() != null) {
+				for (Volume volume : volumeList.volumes()) {
+					final Map<String, String> labels = volume.labels();
+					if (labels == null || labels.get(DockerLabelsBuilder.CACHE_NAME) == null || labels.get(DockerLabelsBuilder.IMAGE_NAME) == null) {
+						continue;
+					}
+					final Pool pool = getPool(endpoint.getUri(), labels.get(DockerLabelsBuilder.IMAGE_NAME), labels.get(DockerLabelsBuilder.CACHE_NAME));
+					if (pool.adopt(volume.name())) {
+						poolByVolume.put(volume.name(), pool);
+					}
+				}
+			}
+
+			int leased = 0;
+			for (Container container : containers) {
+				if (leases.containsKey(container.id())) {
+					continue;
+				}
+				final Lease lease = new Lease();
+				for (ContainerMount mount : mountsOf(container)) {
+					final String volumeName = volumeName(mount, poolByVolume);
+					if (volumeName != null) {
+						final Pool pool = poolByVolume.get(volumeName);
+						lease.held.add(new Held(pool, pool.hold(volumeName), mount.destination()));
+					}
+				}
+				if (!lease.held.isEmpty()) {
+					leases.put(container.id(), lease);
+					leased++;
+				}
+			}
+			if (!poolByVolume.isEmpty()) {
+				LOGGER.info("Found " + poolByVolume.size() + " cache volumes of cloud '" + dockerCloud.getDisplayName() + "' on endpoint " + endpoint.getUri()
+						+ ", held by " + leased + " containers.");
+			}
+			discovered.add(endpoint.getUri());
+		}
+	}
+
+	private static List<ContainerMount> mountsOf(Container container) {
+		return container.mounts() == null ? Collections.<ContainerMount>emptyList() : container.mounts();
+	}
+
+	/**
+	 * @return Name of the adopted cache volume the mount is of, or null if it is of none. The list API does not name
+	 *         a mount's volume, so it is found in the source path, which is the volume's directory on the host.
+	 */
+	private static String volumeName(ContainerMount mount, Map<String, Pool> poolByVolume) {
+		if (mount.source() == null || mount.destination() == null) {
+			return null;
+		}
+		for (String segment : mount.source().split("/")) {
+			if (poolByVolume.containsKey(segment)) {
+				return segment;
+			}
+		}
+		return null;
+	}
+
+	private void create(DockerClient dockerClient, CachedVolume volume) throws DockerException, InterruptedException {
+		synchronized (volume) {
+			if (!volume.created) {
+				LOGGER.info("Creating cache volume " + volume.getName() + " on " + volume.getEndpointUri() + ".");
+				dockerClient.createVolume(Volume.builder()
+						.name(volume.getName())
+						.labels(new DockerLabelsBuilder().cloudName(cloudName).imageName(volume.getImageName()).cacheName(volume.getCacheName()).build())
+						.build());
+				volume.created = true;
+			}
+		}
+	}
+
+	private Pool getPool(String endpointUri, String imageLabel, String cacheName) {
+		final String key = endpointUri + "\n" + imageLabel + "\n" + cacheName;
+		Pool pool = pools.get(key);
+		if (pool == null) {
+			final Pool created = new Pool(endpointUri, imageLabel, cacheName,
+					VOLUME_NAME_PREFIX + volumeSafe(cloudName) + "-" + volumeSafe(imageLabel) + "-" + cacheName);
+			pool = pools.putIfAbsent(key, created);
+			if (pool == null) {
+				pool = created;
+			}
+		}
+		return pool;
+	}
+
+	private static String volumeSafe(String value) {
+		return UNSAFE_CHARACTERS.matcher(value).replaceAll("_");
+	}
+
+	/**
+	 * @return Every cache volume of the cloud known to this master, for the cloud's page.
+	 */
+	public List<CachedVolume> getVolumes() {
+		final List<CachedVolume> volumes = new ArrayList<CachedVolume>();
+		for (Pool pool : pools.values()) {
+			volumes.addAll(pool.snapshot());
+		}
+		Collections.sort(volumes, new Comparator<CachedVolume>() {
+			@Override
+			public int compare(CachedVolume o1, CachedVolume o2) {
+				return o1.getName().compareTo(o2.getName());
+			}
+		});
+		return volumes;
+	}
+
+	/**
+	 * @return Number of cache volumes evicted since Jenkins started.
+	 */
+	public long getEvictedCount() {
+		return evicted.get();
+	}
+
+	/**
+	 * One cache of an image config, parsed from a line of the form <code>name:/container/path[:shared|exclusive]</code>.
+	 */
+	static final class Definition {
+
+		private final String name;
+		private final String path;
+		private final boolean exclusive;
+
+		private Definition(String name, String path, boolean exclusive) {
+			this.name = name;
+			this.path = path;
+			this.exclusive = exclusive;
+		}
+
+		String getName() {
+			return name;
+		}
+
+		String getPath() {
+			return path;
+		}
+
+		boolean isExclusive() {
+			return exclusive;
+		}
+
+		/**
+		 * @throws IllegalArgumentException If a line is not valid. The message says which.
+		 */
+		static List<Definition> parse(String text) {
+			if (text == null || text.trim().isEmpty()) {
+				return Collections.emptyList();
+			}
+			final List<Definition> definitions = new ArrayList<Definition>();
+			final Set<String> names = new HashSet<String>();
+			final Set<String> paths = new HashSet<String>();
+			for (String line : text.split("\\r?\\n")) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				final String[] parts = line.split(":");
+				if (parts.length < 2 || parts.length > 3) {
+					throw new IllegalArgumentException("Expected name:/container/path or name:/container/path:exclusive but got '" + line + "'.");
+				}
+				final String name = parts[0].trim();
+				final String path = parts[1].trim();
+				if (!CACHE_NAME_PATTERN.matcher(name).matches()) {
+					throw new IllegalArgumentException("Cache name '" + name + "' may only contain letters, digits, '_', '.' and '-'.");
+				}
+				if (!path.startsWith("/") || path.indexOf('\'') >= 0) {
+					throw new IllegalArgumentException("Cache path '" + path + "' must be an absolute path without quotes.");
+				}
+				boolean exclusive = false;
+				if (parts.length == 3) {
+					final String mode = parts[2].trim();
+					if ("exclusive".equals(mode)) {
+						exclusive = true;
+					} else if (!"shared".equals(mode)) {
+						throw new IllegalArgumentException("Cache mode '" + mode + "' must be shared or exclusive.");
+					}
+				}
+				if (!names.add(name)) {
+					throw new IllegalArgumentException("Cache name '" + name + "' is used more than once.");
+				}
+				if (!paths.add(path)) {
+					throw new IllegalArgumentException("Cache path '" + path + "' is used more than once.");
+				}
+				definitions.add(new Definition(name, path, exclusive));
+			}
+			return Collections.unmodifiableList(definitions);
+		}
+
+	}
+
+	/**
+	 * A cache volume on a Docker host.
+	 */
+	public static final class CachedVolume {
+
+		private final String name;
+		private final String endpointUri;
+		private final String imageLabel;
+		private final String cacheName;
+		private final boolean shared;
+
+		/**
+		 * Only changed by the pool, holding its lock.
+		 */
+		private volatile int holders;
+
+		private volatile long lastUsedMillis;
+
+		private volatile long sizeBytes = -1;
+
+		private volatile long measuredMillis;
+
+		/**
+		 * Guarded by this.
+		 */
+		private boolean created;
+
+		private CachedVolume(String name, String endpointUri, String imageLabel, String cacheName, boolean shared, boolean created) {
+			this.name = name;
+			this.endpointUri = endpointUri;
+			this.imageLabel = imageLabel;
+			this.cacheName = cacheName;
+			this.shared = shared;
+			this.created = created;
+			this.lastUsedMillis = System.currentTimeMillis();
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getEndpointUri() {
+			return endpointUri;
+		}
+
+		public String getImageName() {
+			return imageLabel;
+		}
+
+		public String getCacheName() {
+			return cacheName;
+		}
+
+		public boolean isShared() {
+			return shared;
+		}
+
+		/**
+		 * @return Number of containers holding the volume.
+		 */
+		public int getHolders() {
+			return holders;
+		}
+
+		public Date getLastUsed() {
+			return new Date(lastUsedMillis);
+		}
+
+		/**
+		 * @return Size in MiB when last measured, or null if it has not been.
+		 */
+		public Long getSizeMB() {
+			final long size = sizeBytes;
+			return size < 0 ? null : size / (1024 * 1024);
+		}
+
+	}
+
+	/**
+	 * The volumes of one cache of one image config on one endpoint.
+	 */
+	private static final class Pool {
+
+		private final String endpointUri;
+		private final String imageLabel;
+		private final String cacheName;
+
+		/**
+		 * Name of the shared volume, and the prefix of the exclusive ones.
+		 */
+		private final String volumeName;
+
+		private final Map<String, CachedVolume> volumes = new LinkedHashMap<String, CachedVolume>();
+
+		private int nextIndex;
+
+		private Pool(String endpointUri, String imageLabel, String cacheName, String volumeName) {
+			this.endpointUri = endpointUri;
+			this.imageLabel = imageLabel;
+			this.cacheName = cacheName;
+			this.volumeName = volumeName;
+		}
+
+		synchronized CachedVolume acquire(boolean exclusive) {
+			CachedVolume volume = null;
+			if (exclusive) {
+				// The most recently used idle volume has the most complete cache. Older ones age out.
+				for (CachedVolume candidate : volumes.values()) {
+					if (!candidate.shared && candidate.holders == 0 && (volume == null || candidate.lastUsedMillis > volume.lastUsedMillis)) {
+						volume = candidate;
+					}
+				}
+				if (volume == null) {
+					volume = new CachedVolume(volumeName + "-" + nextIndex++, endpointUri, imageLabel, cacheName, false, false);
+					volumes.put(volume.name, volume);
+				}
+			} else {
+				volume = volumes.get(volumeName);
+				if (volume == null) {
+					volume = new CachedVolume(volumeName, endpointUri, imageLabel, cacheName, true, false);
+					volumes.put(volume.name, volume);
+				}
+			}
+			volume.holders++;
+			volume.lastUsedMillis = System.currentTimeMillis();
+			return volume;
+		}
+
+		synchronized void release(CachedVolume volume) {
+			volume.holders--;
+			volume.lastUsedMillis = System.currentTimeMillis();
+		}
+
+		/**
+		 * @return True if the volume was added to the pool.
+		 */
+		synchronized boolean adopt(String name) {
+			if (volumes.containsKey(name)) {
+				return false;
+			}
+			final boolean shared = name.equals(volumeName);
+			if (!shared && name.startsWith(volumeName + "-")) {
+				try {
+					nextIndex = Math.max(nextIndex, Integer.parseInt(name.substring(volumeName.length() + 1)) + 1);
+				} catch (NumberFormatException e) {
+					return false;
+				}
+			}
+			volumes.put(name, new CachedVolume(name, endpointUri, imageLabel, cacheName, shared, true));
+			return true;
+		}
+
+		/**
+		 * Count an adopted volume as held by a container that was already mounting it.
+		 */
+		synchronized CachedVolume hold(String name) {
+			final CachedVolume volume = volumes.get(name);
+			volume.holders++;
+			return volume;
+		}
+
+		/**
+		 * Take the idle volumes to evict out of the pool, least recently used first.
+		 *
+		 * @param all True to take every idle volume.
+		 * @param maxBytes Size limit of all the volumes, or 0 for none. Volumes not measured yet count as empty.
+		 * @param maxIdleMillis Time a volume may go unused, or 0 for no limit.
+		 */
+		synchronized List<CachedVolume> evict(boolean all, long maxBytes, long maxIdleMillis) {
+			final List<CachedVolume> idle = new ArrayList<CachedVolume>();
+			long totalBytes = 0;
+			for (CachedVolume volume : volumes.values()) {
+				totalBytes += Math.max(0, volume.sizeBytes);
+				if (volume.holders == 0) {
+					idle.add(volume);
+				}
+			}
+			Collections.sort(idle, new Comparator<CachedVolume>() {
+				@Override
+				public int compare(CachedVolume o1, CachedVolume o2) {
+					return Long.compare(o1.lastUsedMillis, o2.lastUsedMillis);
+				}
+			});
+
+			final long now = System.currentTimeMillis();
+			final List<CachedVolume> victims = new ArrayList<CachedVolume>();
+			for (CachedVolume volume : idle) {
+				final boolean expired = maxIdleMillis > 0 && now - volume.lastUsedMillis > maxIdleMillis;
+				final boolean oversize = maxBytes > 0 && totalBytes > maxBytes;
+				if (all || expired || oversize) {
+					volumes.remove(volume.name);
+					victims.add(volume);
+					totalBytes -= Math.max(0, volume.sizeBytes);
+				}
+			}
+			return victims;
+		}
+
+		synchronized void restore(List<CachedVolume> restored) {
+			for (CachedVolume volume : restored) {
+				if (!volumes.containsKey(volume.name)) {
+					volumes.put(volume.name, volume);
+				}
+			}
+		}
+
+		synchronized List<CachedVolume> snapshot() {
+			return new ArrayList<CachedVolume>(volumes.values());
+		}
+
+	}
+
+	/**
+	 * Cache volumes held for one container.
+	 */
+	static final class Lease {
+
+		private final List<Held> held = new ArrayList<Held>();
+
+		private Lease() {
+		}
+
+		/**
+		 * @return The container configuration with the volumes mounted.
+		 */
+		ContainerConfig apply(ContainerConfig containerConfig) {
+			final List<String> binds = new ArrayList<String>(held.size());
+			for (Held volume : held) {
+				binds.add(volume.volume.getName() + ":" + volume.path);
+			}
+			return containerConfig.toBuilder()
+					.hostConfig(containerConfig.hostConfig().toBuilder().appendBinds(binds).build())
+					.build();
+		}
+
+	}
+
+	private static final class Held {
+
+		private final Pool pool;
+		private final CachedVolume volume;
+		private final String path;
+
+		private Held(Pool pool, CachedVolume volume, String path) {
+			this.pool = pool;
+			this.volume = volume;
+			this.path = path;
+		}
+
+	}
+
+}
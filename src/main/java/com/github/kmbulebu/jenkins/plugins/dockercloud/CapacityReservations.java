@@ -0,0 +1,288 @@
+package com.github.kmbulebu.jenkins.plugins.dockercloud;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.spotify.docker.client.exceptions.DockerCertificateException;
+import com.spotify.docker.client.exceptions.DockerException;
+
+/**
+ * Capacity held for containers that have been planned but are not running yet.
+ *
+ * The container inventory only counts running containers, so without reservations every provision call, and
+ * every node planned within one, would see the same free capacity while earlier nodes are still pulling and
+ * creating. A reservation is taken against the cloud, image config and endpoint caps before a node is planned, and
+ * released once its container is started and counted by the inventory, or when creating it fails. From then on the
+ * inventory counts it until it stops. Reservations are plain counters updated with compare and set, so concurrent
+ * provision calls never block each other. They are kept by cloud name so they survive the cloud being
+ * re-instantiated on a configuration save.
+ *
+ * With resource admission enabled, a reservation also holds the image config's memory limit and CPU shares on the
+ * endpoint. It is only granted if those, added to what the endpoint's running and planned containers already hold,
+ * fit in the host's memory and CPUs less the cloud's headroom.
+ */
+public final class CapacityReservations {
+
+	private static final Logger LOGGER = Logger.getLogger(CapacityReservations.class.getName());
+
+	/**
+	 * CPU shares Docker gives a container by default, taken as the weight of one CPU.
+	 */
+	static final long SHARES_PER_CPU = 1024;
+
+	private static final ConcurrentMap<String, CapacityReservations> RESERVATIONS = new ConcurrentHashMap<String, CapacityReservations>();
+
+	private final AtomicInteger total = new AtomicInteger();
+
+	private final ConcurrentMap<String, AtomicInteger> byImage = new ConcurrentHashMap<String, AtomicInteger>();
+
+	private final ConcurrentMap<String, AtomicInteger> byEndpoint = new ConcurrentHashMap<String, AtomicInteger>();
+
+	private final ConcurrentMap<String, AtomicLong> memoryByEndpoint = new ConcurrentHashMap<String, AtomicLong>();
+
+	private final ConcurrentMap<String, AtomicLong> cpuSharesByEndpoint = new ConcurrentHashMap<String, AtomicLong>();
+
+	private CapacityReservations() {
+	}
+
+	static CapacityReservations forCloud(DockerCloud dockerCloud) {
+		CapacityReservations reservations = RESERVATIONS.get(dockerCloud.getName());
+		if (reservations == null) {
+			final CapacityReservations created = new CapacityReservations();
+			reservations = RESERVATIONS.putIfAbsent(dockerCloud.getName(), created);
+			if (reservations == null) {
+				reservations = created;
+			}
+		}
+		return reservations;
+	}
+
+	/**
+	 * Drop the reservations of clouds that are no longer configured, so a cloud later given the same name starts
+	 * from nothing.
+	 */
+	static void dropUnconfigured(Set<String> configuredClouds) {
+		RESERVATIONS.keySet().retainAll(configuredClouds);
+	}
+
+	/**
+	 * Reserve room for one container of the image config on the endpoint.
+	 *
+	 * @return The reservation, or null if the cloud, image config or endpoint is at its instance cap, or the endpoint
+	 *         has no memory or CPU left for the container.
+	 */
+	Reservation tryReserve(DockerCloud dockerCloud, DockerEndpoint endpoint, DockerImage dockerImage) throws DockerException, InterruptedException, DockerCertificateException {
+		final AtomicInteger imageCounter = counter(byImage, dockerImage.getName());
+		final AtomicInteger endpointCounter = counter(byEndpoint, endpoint.getUri());
+
+		if (!tryIncrement(total, dockerCloud.countRunningContainers(null), dockerCloud.getInstanceCap())) {
+			return null;
+		}
+		if (!tryIncrement(imageCounter, dockerCloud.countRunningContainers(dockerImage.getName()), dockerImage.getInstanceCap())) {
+			total.decrementAndGet();
+			return null;
+		}
+		final int endpointRunning = ContainerInventory.forEndpoint(dockerCloud, endpoint).countRunning(dockerCloud, endpoint, null);
+		if (!tryIncrement(endpointCounter, endpointRunning, endpoint.getInstanceCap())) {
+			imageCounter.decrementAndGet();
+			total.decrementAndGet();
+			return null;
+		}
+		final Reservation reservation = new Reservation(imageCounter, endpointCounter);
+		if (!dockerCloud.isResourceAdmission()) {
+			return reservation;
+		}
+		boolean held = false;
+		try {
+			held = holdResources(dockerCloud, endpoint, dockerImage, reservation);
+		} finally {
+			if (!held) {
+				reservation.release();
+			}
+		}
+		return held ? reservation : null;
+	}
+
+	private boolean holdResources(DockerCloud dockerCloud, DockerEndpoint endpoint, DockerImage dockerImage, Reservation reservation)
+			throws DockerException, InterruptedException, DockerCertificateException {
+		final HostCapacity.Totals host;
+		try {
+			host = HostCapacity.forEndpoint(endpoint).get(dockerCloud.getDockerClient(endpoint));
+		} catch (DockerException e) {
+			CircuitBreaker.forEndpoint(endpoint).failed(e.getMessage());
+			throw e;
+		}
+
+		// What the endpoint's running containers hold, from their image configs.
+		final ContainerInventory inventory = ContainerInventory.forEndpoint(dockerCloud, endpoint);
+		long runningMemoryMB = 0;
+		long runningCpuShares = 0;
+		for (DockerImage image : dockerCloud.getImages()) {
+			final int running = inventory.countRunning(dockerCloud, endpoint, image.getName());
+			if (image.isMemoryLimited()) {
+				runningMemoryMB += running * image.getMemoryLimitMB();
+			}
+			runningCpuShares += running * cpuShares(image);
+		}
+
+		final int usablePercent = 100 - dockerCloud.getResourceHeadroomPercent();
+		if (host.getMemoryMB() > 0 && dockerImage.isMemoryLimited()) {
+			final long memoryMB = dockerImage.getMemoryLimitMB();
+			final AtomicLong memoryCounter = longCounter(memoryByEndpoint, endpoint.getUri());
+			if (!tryAdd(memoryCounter, runningMemoryMB, memoryMB, host.getMemoryMB() * usablePercent / 100)) {
+				LOGGER.log(Level.FINE, "Not enough memory left on endpoint " + endpoint.getUri() + " for a container of image config '" + dockerImage.getName() + "'.");
+				return false;
+			}
+			reservation.holdMemory(memoryCounter, memoryMB);
+		}
+		if (host.getCpus() > 0) {
+			final long shares = cpuShares(dockerImage);
+			final AtomicLong cpuCounter = longCounter(cpuSharesByEndpoint, endpoint.getUri());
+			final long cpuLimit = host.getCpus() * SHARES_PER_CPU * dockerCloud.getCpuOvercommitRatio() * usablePercent / 100;
+			if (!tryAdd(cpuCounter, runningCpuShares, shares, cpuLimit)) {
+				LOGGER.log(Level.FINE, "Not enough CPU left on endpoint " + endpoint.getUri() + " for a container of image config '" + dockerImage.getName() + "'.");
+				return false;
+			}
+			reservation.holdCpuShares(cpuCounter, shares);
+		}
+		return true;
+	}
+
+	private static long cpuShares(DockerImage dockerImage) {
+		// Docker applies its default when none is set.
+		return dockerImage.getCpuShares() > 0 ? dockerImage.getCpuShares() : SHARES_PER_CPU;
+	}
+
+	/**
+	 * @return Number of containers planned on the endpoint and not started yet.
+	 */
+	int getReservedCount(DockerEndpoint endpoint) {
+		final AtomicInteger counter = byEndpoint.get(endpoint.getUri());
+		return counter == null ? 0 : counter.get();
+	}
+
+	/**
+	 * @return Memory in MiB held on the endpoint for containers planned and not started yet.
+	 */
+	public long getReservedMemoryMB(DockerEndpoint endpoint) {
+		final AtomicLong counter = memoryByEndpoint.get(endpoint.getUri());
+		return counter == null ? 0 : counter.get();
+	}
+
+	/**
+	 * @return CPU shares held on the endpoint for containers planned and not started yet.
+	 */
+	public long getReservedCpuShares(DockerEndpoint endpoint) {
+		final AtomicLong counter = cpuSharesByEndpoint.get(endpoint.getUri());
+		return counter == null ? 0 : counter.get();
+	}
+
+	/**
+	 * @return Number of containers planned and not started yet.
+	 */
+	public int getReservedCount() {
+		return total.get();
+	}
+
+	private static boolean tryIncrement(AtomicInteger counter, int running, int cap) {
+		while (true) {
+			final int reserved = counter.get();
+			if (running + reserved >= cap) {
+				return false;
+			}
+			if (counter.compareAndSet(reserved, reserved + 1)) {
+				return true;
+			}
+		}
+	}
+
+	private static boolean tryAdd(AtomicLong counter, long running, long amount, long limit) {
+		while (true) {
+			final long reserved = counter.get();
+			if (running + reserved + amount > limit) {
+				return false;
+			}
+			if (counter.compareAndSet(reserved, reserved + amount)) {
+				return true;
+			}
+		}
+	}
+
+	private static AtomicLong longCounter(ConcurrentMap<String, AtomicLong> counters, String key) {
+		AtomicLong counter = counters.get(key);
+		if (counter == null) {
+			final AtomicLong created = new AtomicLong();
+			counter = counters.putIfAbsent(key, created);
+			if (counter == null) {
+				counter = created;
+			}
+		}
+		return counter;
+	}
+
+	private static AtomicInteger counter(ConcurrentMap<String, AtomicInteger> counters, String key) {
+		AtomicInteger counter = counters.get(key);
+		if (counter == null) {
+			final AtomicInteger created = new AtomicInteger();
+			counter = counters.putIfAbsent(key, created);
+			if (counter == null) {
+				counter = created;
+			}
+		}
+		return counter;
+	}
+
+	/**
+	 * Room held for one planned container.
+	 */
+	final class Reservation {
+
+		private final AtomicInteger imageCounter;
+		private final AtomicInteger endpointCounter;
+		private final AtomicBoolean released = new AtomicBoolean();
+		private AtomicLong memoryCounter;
+		private long memoryMB;
+		private AtomicLong cpuCounter;
+		private long cpuShares;
+
+		private Reservation(AtomicInteger imageCounter, AtomicInteger endpointCounter) {
+			this.imageCounter = imageCounter;
+			this.endpointCounter = endpointCounter;
+		}
+
+		private void holdMemory(AtomicLong counter, long amount) {
+			memoryCounter = counter;
+			memoryMB = amount;
+		}
+
+		private void holdCpuShares(AtomicLong counter, long amount) {
+			cpuCounter = counter;
+			cpuShares = amount;
+		}
+
+		/**
+		 * Give the room back. Safe to call more than once.
+		 */
+		void release() {
+			if (released.compareAndSet(false, true)) {
+				if (memoryCounter != null) {
+					memoryCounter.addAndGet(-memoryMB);
+				}
+				if (cpuCounter != null) {
+					cpuCounter.addAndGet(-cpuShares);
+				}
+				endpointCounter.decrementAndGet();
+				imageCounter.decrementAndGet();
+				total.decrementAndGet();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,248 @@
+package com.github.kmbulebu.jenkins.plugins.dockercloud;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.spotify.docker.client.exceptions.BadParamException;
+import com.spotify.docker.client.exceptions.ConflictException;
+import com.spotify.docker.client.exceptions.DockerCertificateException;
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.exceptions.DockerRequestException;
+import com.spotify.docker.client.exceptions.ImagePullFailedException;
+import com.spotify.docker.client.exceptions.NotFoundException;
+import com.spotify.docker.client.exceptions.PermissionException;
+
+import hudson.model.Computer;
+
+/**
+ * Stops provisioning against a Docker endpoint or image config that keeps failing, so a slow or dead daemon or a
+ * broken image is not hit again on every provisioning review.
+ *
+ * A breaker opens after a number of consecutive failures. While it is open, requests are refused without touching
+ * the daemon. Once its backoff has passed a single probe is let through, and the backoff doubles, up to a limit, each
+ * time the probe fails. Endpoints are probed with a ping in the background. Image configs are probed by letting one
+ * container through. Any success closes the breaker. Endpoint breakers are kept per Docker host, by the endpoint's
+ * connection key, and image config breakers by cloud and image config name.
+ */
+public final class CircuitBreaker {
+
+	private static final Logger LOGGER = Logger.getLogger(CircuitBreaker.class.getName());
+
+	private static final int FAILURE_THRESHOLD = Integer.getInteger(CircuitBreaker.class.getName() + ".failureThreshold", 3);
+
+	private static final long INITIAL_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong(CircuitBreaker.class.getName() + ".initialBackoffSeconds", 10));
+
+	private static final long MAX_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong(CircuitBreaker.class.getName() + ".maxBackoffSeconds", 600));
+
+	private static final ConcurrentMap<String, CircuitBreaker> ENDPOINTS = new ConcurrentHashMap<String, CircuitBreaker>();
+
+	private static final ConcurrentMap<String, CircuitBreaker> IMAGES = new ConcurrentHashMap<String, CircuitBreaker>();
+
+	public enum State {
+		/** Requests go through. */
+		CLOSED,
+		/** Requests are refused until the backoff has passed. */
+		OPEN,
+		/** A probe is in flight. Further requests are refused until it reports or its backoff passes. */
+		HALF_OPEN
+	}
+
+	private final String description;
+
+	private State state = State.CLOSED;
+	private int consecutiveFailures;
+	private long backoffMillis;
+	private long retryAtMillis;
+	private String lastError;
+
+	private CircuitBreaker(String description) {
+		this.description = description;
+	}
+
+	static CircuitBreaker forEndpoint(DockerEndpoint endpoint) {
+		return get(ENDPOINTS, endpoint.getConnectionKey(), "Docker endpoint " + endpoint.getUri());
+	}
+
+	static CircuitBreaker forImage(DockerCloud dockerCloud, String imageName) {
+		return get(IMAGES, dockerCloud.getName() + '|' + imageName, "Image config '" + imageName + "' of cloud '" + dockerCloud.getName() + "'");
+	}
+
+	/**
+	 * Drop the breakers of image configs of clouds that are no longer configured, and of Docker hosts nothing uses any
+	 * more, so a cloud or host added again later starts closed.
+	 *
+	 * @param configuredClouds Names of the Docker clouds currently configured.
+	 * @param usedConnections Connection keys of the Docker hosts still in use.
+	 */
+	static void dropUnused(Set<String> configuredClouds, Set<String> usedConnections) {
+		ENDPOINTS.keySet().retainAll(usedConnections);
+		final Iterator<String> keys = IMAGES.keySet().iterator();
+		while (keys.hasNext()) {
+			final String key = keys.next();
+			boolean configured = false;
+			for (String cloudName : configuredClouds) {
+				if (key.startsWith(cloudName + '|')) {
+					configured = true;
+					break;
+				}
+			}
+			if (!configured) {
+				keys.remove();
+			}
+		}
+	}
+
+	private static CircuitBreaker get(ConcurrentMap<String, CircuitBreaker> breakers, String key, String description) {
+		CircuitBreaker breaker = breakers.get(key);
+		if (breaker == null) {
+			final CircuitBreaker created = new CircuitBreaker(description);
+			breaker = breakers.putIfAbsent(key, created);
+			if (breaker == null) {
+				breaker = created;
+			}
+		}
+		return breaker;
+	}
+
+	/**
+	 * @return True if the endpoint can be used. If its breaker is due a probe, a ping is sent in the background and
+	 *         the endpoint stays unavailable until it answers.
+	 */
+	static boolean isAvailable(final DockerCloud dockerCloud, final DockerEndpoint endpoint) {
+		final CircuitBreaker breaker = forEndpoint(endpoint);
+		if (breaker.isClosed()) {
+			return true;
+		}
+		if (breaker.tryAcquire()) {
+			Computer.threadPoolForRemoting.submit(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						dockerCloud.getDockerClient(endpoint).ping();
+						breaker.succeeded();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} catch (Exception e) {
+						LOGGER.log(Level.FINE, "Docker endpoint " + endpoint.getUri() + " did not answer a ping. " + e.getMessage(), e);
+						breaker.failed(e.getMessage());
+					}
+				}
+			});
+		}
+		return false;
+	}
+
+	/**
+	 * Record a failure against whichever of the endpoint or the image config caused it. Errors the daemon answered
+	 * with, such as a missing image or a bad container config, count against the image config. Errors reaching the
+	 * daemon at all, such as timeouts and refused connections, count against the endpoint.
+	 */
+	static void failed(DockerEndpoint endpoint, CircuitBreaker imageBreaker, Exception e) {
+		if (isEndpointFault(e)) {
+			forEndpoint(endpoint).failed(e.getMessage());
+		} else {
+			imageBreaker.failed(e.getMessage());
+		}
+	}
+
+	private static boolean isEndpointFault(Exception e) {
+		if (e instanceof DockerCertificateException || e instanceof IOException) {
+			return true;
+		}
+		if (!(e instanceof DockerException)) {
+			return false;
+		}
+		return !(e instanceof DockerRequestException || e instanceof NotFoundException || e instanceof ImagePullFailedException
+				|| e instanceof ConflictException || e instanceof BadParamException || e instanceof PermissionException);
+	}
+
+	/**
+	 * @return True if requests go through, or a probe is due. Does not start the probe.
+	 */
+	synchronized boolean isAllowing() {
+		return state == State.CLOSED || System.currentTimeMillis() >= retryAtMillis;
+	}
+
+	synchronized boolean isClosed() {
+		return state == State.CLOSED;
+	}
+
+	/**
+	 * @return True if a request may go through. When the backoff has passed, exactly one caller is let through as the
+	 *         probe. If it never reports back, another is let through after a further backoff.
+	 */
+	synchronized boolean tryAcquire() {
+		if (state == State.CLOSED) {
+			return true;
+		}
+		final long now = System.currentTimeMillis();
+		if (now < retryAtMillis) {
+			return false;
+		}
+		state = State.HALF_OPEN;
+		retryAtMillis = now + backoffMillis;
+		return true;
+	}
+
+	/**
+	 * Give back a probe taken with {@link #tryAcquire()} that was never sent, so the next request can probe at once.
+	 */
+	synchronized void cancelProbe() {
+		if (state == State.HALF_OPEN) {
+			state = State.OPEN;
+			retryAtMillis = System.currentTimeMillis();
+		}
+	}
+
+	synchronized void succeeded() {
+		if (state != State.CLOSED) {
+			LOGGER.info(description + " is healthy again. Resuming provisioning.");
+		}
+		state = State.CLOSED;
+		consecutiveFailures = 0;
+		backoffMillis = 0;
+		lastError = null;
+	}
+
+	synchronized void failed(String error) {
+		consecutiveFailures++;
+		lastError = error;
+		if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= FAILURE_THRESHOLD)) {
+			backoffMillis = backoffMillis == 0 ? INITIAL_BACKOFF_MILLIS : Math.min(backoffMillis * 2, MAX_BACKOFF_MILLIS);
+			retryAtMillis = System.currentTimeMillis() + backoffMillis;
+			state = State.OPEN;
+			LOGGER.warning(description + " failed " + consecutiveFailures + " times in a row. Not provisioning on it for "
+					+ TimeUnit.MILLISECONDS.toSeconds(backoffMillis) + " seconds. " + error);
+		}
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	public synchronized int getConsecutiveFailures() {
+		return consecutiveFailures;
+	}
+
+	/**
+	 * @return When the next probe is due, or null if the breaker is closed.
+	 */
+	public synchronized Date getRetryAt() {
+		return state == State.CLOSED ? null : new Date(retryAtMillis);
+	}
+
+	/**
+	 * @return Error of the most recent failure, or null since the last success.
+	 */
+	public synchronized String getLastError() {
+		return lastError;
+	}
+
+}
@@ -0,0 +1,310 @@
+package com.github.kmbulebu.jenkins.plugins.dockercloud;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.DockerClient.EventsParam;
+import com.spotify.docker.client.DockerClient.ListContainersParam;
+import com.spotify.docker.client.EventStream;
+import com.spotify.docker.client.exceptions.DockerCertificateException;
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.messages.Container;
+import com.spotify.docker.client.messages.Event;
+
+import hudson.slaves.Cloud;
+import jenkins.model.Jenkins;
+
+/**
+ * In memory inventory of the running containers owned by a cloud on one of its endpoints, grouped by image
+ * configuration.
+ *
+ * The inventory is seeded with a single listContainers call and then kept current from the Docker events
+ * stream, so instance cap checks are simple reads instead of a round trip to the daemon. A full resync runs
+ * periodically to recover from any missed events. Inventories are kept by cloud name and endpoint URI so they
+ * survive the cloud being re-instantiated on a configuration save.
+ */
+final class ContainerInventory {
+
+	private static final Logger LOGGER = Logger.getLogger(ContainerInventory.class.getName());
+
+	private static final String RESYNC_INTERVAL_PROPERTY = ContainerInventory.class.getName() + ".resyncIntervalMs";
+
+	private static final long RESYNC_INTERVAL_DEFAULT = TimeUnit.MINUTES.toMillis(5);
+
+	private static final long RECONNECT_DELAY = TimeUnit.SECONDS.toMillis(5);
+
+	private static final ConcurrentMap<String, ContainerInventory> INVENTORIES = new ConcurrentHashMap<String, ContainerInventory>();
+
+	private final String cloudName;
+
+	private final String endpointUri;
+
+	/**
+	 * Null until the first sync.
+	 */
+	private volatile Snapshot snapshot;
+
+	/**
+	 * True while the events stream is connected and keeping the snapshot current.
+	 */
+	private volatile boolean streaming;
+
+	private volatile long lastSyncMillis;
+
+	private Thread eventThread;
+
+	private ContainerInventory(String cloudName, String endpointUri) {
+		this.cloudName = cloudName;
+		this.endpointUri = endpointUri;
+	}
+
+	static ContainerInventory forEndpoint(DockerCloud dockerCloud, DockerEndpoint endpoint) {
+		final String key = dockerCloud.getName() + '|' + endpoint.getUri();
+		ContainerInventory inventory = INVENTORIES.get(key);
+		if (inventory == null) {
+			final ContainerInventory created = new ContainerInventory(dockerCloud.getName(), endpoint.getUri());
+			inventory = INVENTORIES.putIfAbsent(key, created);
+			if (inventory == null) {
+				inventory = created;
+			}
+		}
+		return inventory;
+	}
+
+	/**
+	 * Count running containers of the cloud on this endpoint. While the endpoint's circuit breaker is open, the last
+	 * known counts are used, or none if it was never synced.
+	 *
+	 * @param imageName Name of the image configuration to count, or null to count all of the cloud's containers.
+	 */
+	int countRunning(DockerCloud dockerCloud, DockerEndpoint endpoint, String imageName) throws DockerException, InterruptedException, DockerCertificateException {
+		startWatching();
+
+		Snapshot current = snapshot;
+		if ((current == null || (!streaming && isResyncDue())) && CircuitBreaker.isAvailable(dockerCloud, endpoint)) {
+			// Events are not flowing, so the snapshot can not be trusted.
+			try {
+				current = resync(dockerCloud.getDockerClient(endpoint));
+				CircuitBreaker.forEndpoint(endpoint).succeeded();
+			} catch (DockerException | DockerCertificateException e) {
+				CircuitBreaker.forEndpoint(endpoint).failed(e.getMessage());
+				throw e;
+			}
+		}
+		if (current == null) {
+			return 0;
+		}
+		return imageName == null ? current.total() : current.count(DockerLabelsBuilder.sanitize(imageName));
+	}
+
+	/**
+	 * @return False only if the inventory is current and the container is not running. Unknown is treated as running.
+	 */
+	boolean isRunning(String containerId) {
+		final Snapshot current = snapshot;
+		return current == null || !streaming || current.contains(containerId);
+	}
+
+	/**
+	 * Count a container started by this plugin without waiting for its start event.
+	 */
+	void started(String containerId, String imageName) {
+		added(containerId, DockerLabelsBuilder.sanitize(imageName));
+	}
+
+	/**
+	 * Stop counting a container that is being removed, without waiting for its die event.
+	 */
+	void stopping(String containerId) {
+		removed(containerId);
+	}
+
+	private synchronized void startWatching() {
+		if (eventThread != null && eventThread.isAlive()) {
+			return;
+		}
+		eventThread = new Thread("Docker events for cloud " + cloudName + " on " + endpointUri) {
+			@Override
+			public void run() {
+				watchEvents();
+			}
+		};
+		eventThread.setDaemon(true);
+		eventThread.start();
+	}
+
+	private void watchEvents() {
+		long since = 0;
+		while (true) {
+			final Jenkins jenkins = Jenkins.getInstance();
+			final Cloud cloud = jenkins == null ? null : jenkins.getCloud(cloudName);
+			final DockerEndpoint endpoint = cloud instanceof DockerCloud ? ((DockerCloud) cloud).getEndpoint(endpointUri) : null;
+			if (endpoint == null) {
+				LOGGER.info("Cloud '" + cloudName + "' no longer uses endpoint " + endpointUri + ". Stopping container inventory.");
+				INVENTORIES.remove(cloudName + '|' + endpointUri, this);
+				streaming = false;
+				return;
+			}
+
+			EventStream events = null;
+			try {
+				final DockerClient dockerClient = ((DockerCloud) cloud).getDockerClient(endpoint);
+				if (snapshot == null || isResyncDue()) {
+					resync(dockerClient);
+					since = 0;
+				}
+				if (since == 0) {
+					// Pick up from the sync so nothing is missed while connecting.
+					since = TimeUnit.MILLISECONDS.toSeconds(lastSyncMillis) - 1;
+				}
+
+				events = dockerClient.events(EventsParam.type(Event.Type.CONTAINER),
+						EventsParam.label(DockerLabelsBuilder.CLOUD_NAME, DockerLabelsBuilder.sanitize(cloudName)),
+						EventsParam.since(since));
+				streaming = true;
+				while (events.hasNext()) {
+					final Event event = events.next();
+					if (event.time() != null) {
+						since = TimeUnit.MILLISECONDS.toSeconds(event.time().getTime());
+					}
+					onEvent(event);
+					if (isResyncDue()) {
+						resync(dockerClient);
+					}
+				}
+			} catch (InterruptedException e) {
+				LOGGER.log(Level.FINE, "Interrupted while watching events for cloud '" + cloudName + "'.", e);
+				streaming = false;
+				return;
+			} catch (Exception e) {
+				// The read times out when the daemon is quiet, so this is routine. Reconnect from the last event seen.
+				LOGGER.log(Level.FINE, "Events stream for cloud '" + cloudName + "' ended. " + e.getMessage(), e);
+			} finally {
+				if (events != null) {
+					events.close();
+				}
+			}
+
+			streaming = false;
+			try {
+				Thread.sleep(RECONNECT_DELAY);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	private void onEvent(Event event) {
+		final String action = event.action() != null ? event.action() : event.status();
+		final String containerId = event.actor() != null ? event.actor().id() : event.id();
+		if (action == null || containerId == null) {
+			return;
+		}
+
+		if ("start".equals(action)) {
+			final Map<String, String> attributes = event.actor() == null ? null : event.actor().attributes();
+			final String imageName = attributes == null ? null : attributes.get(DockerLabelsBuilder.IMAGE_NAME);
+			LOGGER.fine("Container " + containerId + " started for image '" + imageName + "' in cloud '" + cloudName + "'.");
+			added(containerId, imageName);
+		} else if ("die".equals(action) || "destroy".equals(action)) {
+			LOGGER.fine("Container " + containerId + " stopped in cloud '" + cloudName + "'.");
+			removed(containerId);
+		}
+	}
+
+	private synchronized void added(String containerId, String imageName) {
+		if (snapshot != null) {
+			snapshot.add(containerId, imageName);
+		}
+	}
+
+	private synchronized void removed(String containerId) {
+		if (snapshot != null) {
+			snapshot.remove(containerId);
+		}
+	}
+
+	private Snapshot resync(DockerClient dockerClient) throws DockerException, InterruptedException {
+		final List<Container> containers = dockerClient.listContainers(
+				ListContainersParam.withLabel(DockerLabelsBuilder.CLOUD_NAME, DockerLabelsBuilder.sanitize(cloudName)));
+		final Snapshot synced = new Snapshot(containers.size());
+		for (Container container : containers) {
+			final Map<String, String> labels = container.labels();
+			synced.add(container.id(), labels == null ? null : labels.get(DockerLabelsBuilder.IMAGE_NAME));
+		}
+		synchronized (this) {
+			snapshot = synced;
+			lastSyncMillis = System.currentTimeMillis();
+		}
+		LOGGER.fine("Synced container inventory for cloud '" + cloudName + "' on " + endpointUri + ". Found " + synced.total() + " running containers.");
+		return synced;
+	}
+
+	private boolean isResyncDue() {
+		return System.currentTimeMillis() - lastSyncMillis > Long.getLong(RESYNC_INTERVAL_PROPERTY, RESYNC_INTERVAL_DEFAULT);
+	}
+
+	/**
+	 * Running containers and a count per image config. Reads never lock. Changes are made under the inventory's lock
+	 * and touch only the container and its image's counter, and a resync swaps in a whole new instance.
+	 */
+	private static final class Snapshot {
+
+		/**
+		 * Stands in for a container without an image config label, as the maps do not take null.
+		 */
+		private static final String NO_IMAGE = "";
+
+		private final ConcurrentMap<String, String> imageByContainer;
+		private final ConcurrentMap<String, AtomicInteger> countByImage = new ConcurrentHashMap<String, AtomicInteger>();
+
+		private Snapshot(int expectedSize) {
+			this.imageByContainer = new ConcurrentHashMap<String, String>(Math.max(16, expectedSize * 2));
+		}
+
+		private void add(String containerId, String imageName) {
+			final String key = imageName == null ? NO_IMAGE : imageName;
+			if (imageByContainer.putIfAbsent(containerId, key) != null) {
+				return;
+			}
+			AtomicInteger count = countByImage.get(key);
+			if (count == null) {
+				final AtomicInteger created = new AtomicInteger();
+				count = countByImage.putIfAbsent(key, created);
+				if (count == null) {
+					count = created;
+				}
+			}
+			count.incrementAndGet();
+		}
+
+		private void remove(String containerId) {
+			final String key = imageByContainer.remove(containerId);
+			if (key != null) {
+				countByImage.get(key).decrementAndGet();
+			}
+		}
+
+		private boolean contains(String containerId) {
+			return imageByContainer.containsKey(containerId);
+		}
+
+		private int total() {
+			return imageByContainer.size();
+		}
+
+		private int count(String imageName) {
+			final AtomicInteger count = countByImage.get(imageName == null ? NO_IMAGE : imageName);
+			return count == null ? 0 : count.get();
+		}
+
+	}
+
+}
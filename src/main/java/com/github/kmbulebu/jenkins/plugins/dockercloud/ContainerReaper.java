@@ -0,0 +1,299 @@
+package com.github.kmbulebu.jenkins.plugins.dockercloud;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.DockerClient.RemoveContainerParam;
+import com.spotify.docker.client.exceptions.ContainerNotFoundException;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+/**
+ * Removes a cloud's terminated containers in the background.
+ *
+ * Terminating a slave only queues its container here, so the thread running the termination is freed at once and
+ * the container stops counting towards the instance caps. A single thread drains the queue in batches and force
+ * removes each batch with bounded parallelism. Removals that fail are retried a few times, with a growing delay,
+ * before the container is left for the orphan sweep. Removals on an endpoint whose circuit breaker is open are put
+ * off without using up an attempt. Reapers are kept by cloud name so they survive the cloud being re-instantiated on
+ * a configuration save, and shut down once their cloud is gone and nothing is left to remove.
+ */
+public final class ContainerReaper {
+
+	private static final Logger LOGGER = Logger.getLogger(ContainerReaper.class.getName());
+
+	private static final String PARALLELISM_PROPERTY = ContainerReaper.class.getName() + ".parallelism";
+
+	private static final String BATCH_SIZE_PROPERTY = ContainerReaper.class.getName() + ".batchSize";
+
+	private static final int MAX_ATTEMPTS = 3;
+
+	private static final long RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+	private static final long UNAVAILABLE_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+	private static final ConcurrentMap<String, ContainerReaper> REAPERS = new ConcurrentHashMap<String, ContainerReaper>();
+
+	private final String cloudName;
+
+	private final DelayQueue<Removal> queue = new DelayQueue<Removal>();
+
+	/**
+	 * Ids of the containers queued or being removed, mapped to the connection key of their endpoint.
+	 */
+	private final ConcurrentMap<String, String> pending = new ConcurrentHashMap<String, String>();
+
+	private final ExecutorService removers;
+
+	private final AtomicInteger inProgress = new AtomicInteger();
+
+	private final AtomicLong removed = new AtomicLong();
+
+	private final AtomicLong failed = new AtomicLong();
+
+	private final Thread dispatcher;
+
+	// Guarded by this.
+	private boolean shutDown;
+
+	private ContainerReaper(String cloudName) {
+		this.cloudName = cloudName;
+		this.removers = Executors.newFixedThreadPool(Math.max(1, Integer.getInteger(PARALLELISM_PROPERTY, 4)),
+				new NamingThreadFactory(new DaemonThreadFactory(), "Docker container reaper for cloud " + cloudName));
+		dispatcher = new Thread("Docker container reaper queue for cloud " + cloudName) {
+			@Override
+			public void run() {
+				dispatch();
+			}
+		};
+		dispatcher.setDaemon(true);
+		dispatcher.start();
+	}
+
+	static ContainerReaper forCloud(DockerCloud dockerCloud) {
+		ContainerReaper reaper = REAPERS.get(dockerCloud.getName());
+		if (reaper == null) {
+			synchronized (REAPERS) {
+				reaper = REAPERS.get(dockerCloud.getName());
+				if (reaper == null) {
+					reaper = new ContainerReaper(dockerCloud.getName());
+					REAPERS.put(dockerCloud.getName(), reaper);
+				}
+			}
+		}
+		return reaper;
+	}
+
+	/**
+	 * Queue a container for removal and stop counting it towards the instance caps.
+	 *
+	 * @param imageName Name of the container's image config, or null if it is not known.
+	 */
+	void remove(DockerCloud dockerCloud, DockerEndpoint endpoint, String containerId, String imageName) {
+		ContainerInventory.forEndpoint(dockerCloud, endpoint).stopping(containerId);
+		synchronized (this) {
+			if (!shutDown) {
+				if (pending.putIfAbsent(containerId, endpoint.getConnectionKey()) == null) {
+					queue.add(new Removal(dockerCloud, endpoint, containerId, ProvisioningMetrics.forImage(dockerCloud, imageName)));
+				}
+				return;
+			}
+		}
+		// A slave of a cloud that was removed from the configuration. Hand it to a fresh reaper.
+		forCloud(dockerCloud).remove(dockerCloud, endpoint, containerId, imageName);
+	}
+
+	/**
+	 * Shut down the reapers of clouds that are no longer configured, once they have nothing left to remove.
+	 *
+	 * @param configuredClouds Names of the Docker clouds currently configured.
+	 */
+	static void shutDownUnconfigured(Set<String> configuredClouds) {
+		synchronized (REAPERS) {
+			final Iterator<Map.Entry<String, ContainerReaper>> entries = REAPERS.entrySet().iterator();
+			while (entries.hasNext()) {
+				final Map.Entry<String, ContainerReaper> entry = entries.next();
+				if (!configuredClouds.contains(entry.getKey()) && entry.getValue().shutDownIfIdle()) {
+					entries.remove();
+					LOGGER.info("Shut down container reaper of cloud '" + entry.getKey() + "', which is no longer configured.");
+				}
+			}
+		}
+	}
+
+	private synchronized boolean shutDownIfIdle() {
+		if (!pending.isEmpty()) {
+			return false;
+		}
+		shutDown = true;
+		dispatcher.interrupt();
+		removers.shutdown();
+		return true;
+	}
+
+	/**
+	 * @return Connection keys of the endpoints with containers waiting to be removed or being removed, by any reaper.
+	 */
+	static Set<String> getPendingConnections() {
+		final Set<String> connections = new HashSet<String>();
+		for (ContainerReaper reaper : REAPERS.values()) {
+			connections.addAll(reaper.pending.values());
+		}
+		return connections;
+	}
+
+	/**
+	 * @return True if the container is waiting to be removed or being removed.
+	 */
+	boolean isQueued(String containerId) {
+		return pending.containsKey(containerId);
+	}
+
+	/**
+	 * @return Number of containers waiting to be removed or being removed.
+	 */
+	public int getBacklog() {
+		return queue.size() + inProgress.get();
+	}
+
+	/**
+	 * @return Number of containers removed since Jenkins started.
+	 */
+	public long getRemovedCount() {
+		return removed.get();
+	}
+
+	/**
+	 * @return Number of containers given up on after repeated failures since Jenkins started.
+	 */
+	public long getFailedCount() {
+		return failed.get();
+	}
+
+	private void dispatch() {
+		final int batchSize = Math.max(1, Integer.getInteger(BATCH_SIZE_PROPERTY, 20));
+		while (true) {
+			final List<Removal> batch = new ArrayList<Removal>(batchSize);
+			try {
+				batch.add(queue.take());
+			} catch (InterruptedException e) {
+				return;
+			}
+			queue.drainTo(batch, batchSize - 1);
+			inProgress.addAndGet(batch.size());
+
+			final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(batch.size());
+			for (final Removal removal : batch) {
+				tasks.add(new Callable<Void>() {
+					@Override
+					public Void call() {
+						try {
+							removeContainer(removal);
+						} finally {
+							inProgress.decrementAndGet();
+						}
+						return null;
+					}
+				});
+			}
+			try {
+				removers.invokeAll(tasks);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	private void removeContainer(Removal removal) {
+		if (!CircuitBreaker.isAvailable(removal.dockerCloud, removal.endpoint)) {
+			LOGGER.fine("Endpoint " + removal.endpoint.getUri() + " is backing off after failures. Putting off removing container " + removal.containerId + ".");
+			queue.add(removal.delayedBy(UNAVAILABLE_DELAY_MILLIS));
+			return;
+		}
+		final long startNanos = System.nanoTime();
+		final CacheVolumes cacheVolumes = CacheVolumes.forCloud(removal.dockerCloud);
+		try {
+			final DockerClient dockerClient = removal.dockerCloud.getDockerClient(removal.endpoint);
+			// Measured while the container still runs, for the cache size limits.
+			cacheVolumes.measure(dockerClient, removal.containerId);
+			LOGGER.info("Removing container " + removal.containerId + " and volumes.");
+			dockerClient.removeContainer(removal.containerId, RemoveContainerParam.forceKill(true), RemoveContainerParam.removeVolumes(true));
+			removal.metrics.record(ProvisioningMetrics.Phase.TERMINATE, startNanos);
+			removed.incrementAndGet();
+			pending.remove(removal.containerId);
+			cacheVolumes.released(removal.dockerCloud, removal.containerId);
+		} catch (ContainerNotFoundException e) {
+			LOGGER.info("Container " + removal.containerId + " not found. Ignoring.");
+			pending.remove(removal.containerId);
+			cacheVolumes.released(removal.dockerCloud, removal.containerId);
+		} catch (InterruptedException e) {
+			pending.remove(removal.containerId);
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+			if (++removal.attempts < MAX_ATTEMPTS) {
+				// 5 seconds, then 10, so a daemon that is briefly down is not given up on within milliseconds.
+				final long delayMillis = RETRY_DELAY_MILLIS << (removal.attempts - 1);
+				LOGGER.log(Level.WARNING, "Error while removing container " + removal.containerId + ". Will retry in "
+						+ TimeUnit.MILLISECONDS.toSeconds(delayMillis) + " seconds. " + e.getMessage(), e);
+				queue.add(removal.delayedBy(delayMillis));
+			} else {
+				LOGGER.log(Level.SEVERE, "Giving up removing container " + removal.containerId + " in cloud '" + cloudName + "'. " + e.getMessage(), e);
+				failed.incrementAndGet();
+				removal.metrics.failed(ProvisioningMetrics.FailureCause.TERMINATE);
+				pending.remove(removal.containerId);
+			}
+		}
+	}
+
+	private static final class Removal implements Delayed {
+
+		private final DockerCloud dockerCloud;
+		private final DockerEndpoint endpoint;
+		private final String containerId;
+		private final ProvisioningMetrics metrics;
+		private int attempts;
+		private volatile long dueNanos = System.nanoTime();
+
+		private Removal(DockerCloud dockerCloud, DockerEndpoint endpoint, String containerId, ProvisioningMetrics metrics) {
+			this.dockerCloud = dockerCloud;
+			this.endpoint = endpoint;
+			this.containerId = containerId;
+			this.metrics = metrics;
+		}
+
+		private Removal delayedBy(long delayMillis) {
+			dueNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+			return this;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(dueNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed other) {
+			return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+		}
+
+	}
+
+}
@@ -0,0 +1,214 @@
+package com.github.kmbulebu.jenkins.plugins.dockercloud;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.github.kmbulebu.jenkins.plugins.dockercloud.CreateContainerCallable.StartedContainer;
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.exceptions.ImageNotFoundException;
+import com.spotify.docker.client.messages.ContainerConfig;
+import com.spotify.docker.client.messages.ContainerCreation;
+import com.spotify.docker.client.messages.HostConfig;
+import com.spotify.docker.client.messages.ImageInfo;
+
+/**
+ * Everything needed to create containers for an image config. Immutable, so it is built once and shared by every
+ * container in a provisioning batch.
+ */
+final class ContainerSpec {
+	
+	private static final Logger LOGGER = Logger.getLogger(ContainerSpec.class.getName());
+	
+	private final DockerCloud dockerCloud;
+	private final DockerEndpoint endpoint;
+	private final DockerImage dockerImage;
+	private final ContainerConfig containerConfig;
+	private final String execUser;
+	
+	private ContainerSpec(DockerCloud dockerCloud, DockerEndpoint endpoint, DockerImage dockerImage, ContainerConfig containerConfig, String execUser) {
+		this.dockerCloud = dockerCloud;
+		this.endpoint = endpoint;
+		this.dockerImage = dockerImage;
+		this.containerConfig = containerConfig;
+		this.execUser = execUser;
+	}
+	
+	/**
+	 * Resolve the image on an endpoint and build the container configuration for an image config.
+	 * 
+	 * @param standby True if the containers are started ahead of demand for the warm pool.
+	 */
+	static ContainerSpec build(DockerClient dockerClient, DockerCloud dockerCloud, DockerEndpoint endpoint, DockerImage dockerImage, boolean standby) throws Exception {
+		
+		// Pull image, sharing the result with any concurrent requests for the same image.
+		final ImageCache imageCache = ImageCache.forEndpoint(endpoint);
+		final ImageInfo imageInfo = imageCache.resolve(dockerClient, dockerCloud, endpoint, dockerImage);
+		final String imageUser = imageInfo.config().user();
+		
+		
+		// Force pulled images are refreshed in the background, so pin the container to the refreshed image id.
+		final String image = dockerImage.isPullForced() && !dockerImage.isPullDisabled() ? imageInfo.id() : dockerImage.getDockerImageName();
+		final ContainerConfig.Builder containerConfigBuilder = ContainerConfig.builder().image(image);
+		final HostConfig.Builder hostConfigBuilder = HostConfig.builder();
+		
+		LOGGER.fine("Setting cmd to 'cat'.");
+		//containerConfigBuilder.user("root");
+		containerConfigBuilder.attachStderr(true).attachStdout(true).tty(true);
+		//containerConfigBuilder.tty(true).cmd(new String[] {"sh","-c","mkfifo /jenkins-out && chmod a+w /jenkins-out && tail -f /jenkins-out"});
+		containerConfigBuilder.cmd(new String[] {"cat"});
+		
+		
+		// Set CPU shares. Hopefully this won't be a problem on any exotic Docker platforms.
+		hostConfigBuilder.cpuShares(dockerImage.getCpuShares());
+		
+		if (dockerImage.isMemoryLimited()) {
+			final Long memory = dockerImage.getMemoryLimitMB() * 1024 * 1024; // MB to bytes.
+			LOGGER.fine("Setting memory limit to '" + memory + "' for container.");
+			hostConfigBuilder.memory(memory);
+			
+			// Can only limit swap if you limit memory.
+			if (dockerImage.isSwapLimited()) {
+				final Long swap = dockerImage.getSwapLimitMB() * 1024 * 1024; // MB to bytes
+				final Long memorySwap = swap + memory;
+				LOGGER.fine("Setting memorySwap limit to '" + memorySwap + "' for container.");
+				hostConfigBuilder.memorySwap(memorySwap);
+			}
+		}
+		
+		// Setup working directory
+		if (dockerImage.getWorkingDir() != null && dockerImage.getWorkingDir().length() > 0) {
+			containerConfigBuilder.workingDir(dockerImage.getWorkingDir());
+		}
+		
+		// Apply labels to the container to make tracking it easier.
+		final DockerLabelsBuilder labelsBuilder = new DockerLabelsBuilder();
+		labelsBuilder.cloudName(dockerCloud.getName());
+		labelsBuilder.imageName(dockerImage.getName());
+		labelsBuilder.labelString(dockerImage.getLabelString());
+		labelsBuilder.standby(standby);
+		containerConfigBuilder.labels(labelsBuilder.build());
+		
+		
+		
+		
+		// Set privileged if requested.
+		hostConfigBuilder.privileged(dockerImage.isPrivileged());
+		
+		
+		// Volumes
+		String[] volumeLines;
+		if (dockerImage.getVolumes() == null) {
+			volumeLines = new String[] {};
+		} else {
+			volumeLines = dockerImage.getVolumes().split("$");
+		}
+		
+		LOGGER.fine("Adding host binds and container volumes: " + Arrays.toString(volumeLines));
+		hostConfigBuilder.binds(volumeLines);
+		containerConfigBuilder.volumes(volumeLines);
+		
+		// Mount the cached slave jar. The launcher falls back to downloading it if this fails.
+		if (dockerCloud.isAgentJarCached()) {
+			try {
+				hostConfigBuilder.appendBinds(AgentJarCache.prepare(dockerClient, dockerCloud, endpoint, dockerImage.getDockerImageName()));
+			} catch (DockerException | IOException e) {
+				LOGGER.log(Level.WARNING, "Could not prepare the cached slave jar on endpoint " + endpoint.getUri() + " of Docker cloud '" + dockerCloud.getDisplayName() + "'. Slave will download it. " + e.getMessage(), e);
+			}
+		}
+		
+		// Add host config 
+		containerConfigBuilder.hostConfig(hostConfigBuilder.build());
+		
+		// Tell the launcher which user to run under
+		String execUser;
+		if (dockerImage.getUserOverride() != null && dockerImage.getUserOverride().trim().length() > 0) {
+			LOGGER.fine("Setting user to '" + dockerImage.getUserOverride() + "' for container.");
+			execUser = dockerImage.getUserOverride();
+		} else if (imageUser != null && imageUser.trim().length() > 0) {
+			// Use the user embedded in image.
+			execUser = imageUser.trim();
+		} else {
+			// Do not specify (usually root)
+			execUser = null;
+		}
+		
+		return new ContainerSpec(dockerCloud, endpoint, dockerImage, containerConfigBuilder.build(), execUser);
+	}
+	
+	/**
+	 * Create and start a container running the placeholder command, ready for the launcher to exec the slave.
+	 * 
+	 * @param metrics Records how long the create and start calls take.
+	 */
+	StartedContainer start(DockerClient dockerClient, ProvisioningMetrics metrics) throws Exception {
+		return start(dockerClient, metrics, null);
+	}
+	
+	/**
+	 * Create and start a container.
+	 * 
+	 * @param metrics Records how long the create and start calls take.
+	 * @param slaveName If not null, the container runs the slave for this node name as its main process instead of the placeholder command.
+	 */
+	StartedContainer start(DockerClient dockerClient, ProvisioningMetrics metrics, String slaveName) throws Exception {
+		// Cache volumes are leased per container, so they are added to the shared configuration here.
+		final CacheVolumes cacheVolumes = CacheVolumes.forCloud(dockerCloud);
+		CacheVolumes.Lease lease = null;
+		try {
+			lease = cacheVolumes.lease(dockerClient, dockerCloud, endpoint, dockerImage);
+		} catch (DockerException e) {
+			LOGGER.log(Level.WARNING, "Could not prepare the cache volumes of image config '" + dockerImage.getName() + "' on endpoint " + endpoint.getUri() + ". Starting without them. " + e.getMessage(), e);
+		}
+		
+		ContainerConfig config = lease == null ? containerConfig : lease.apply(containerConfig);
+		if (slaveName != null) {
+			final ContainerConfig.Builder slaveConfigBuilder = config.toBuilder()
+					.cmd(DockerLauncher.getContainerCommand())
+					.env(DockerLauncher.getContainerEnv(slaveName));
+			if (execUser != null) {
+				slaveConfigBuilder.user(execUser);
+			}
+			config = slaveConfigBuilder.build();
+		}
+		
+		LOGGER.info("Creating container from image " + dockerImage.getDockerImageName() + " on " + endpoint.getUri() + ".");
+		final ContainerCreation creation;
+		long startNanos = System.nanoTime();
+		try {
+			creation = dockerClient.createContainer(config);
+			metrics.record(ProvisioningMetrics.Phase.CONTAINER_CREATE, startNanos);
+		} catch (Exception e) {
+			if (lease != null) {
+				cacheVolumes.release(lease);
+			}
+			if (e instanceof ImageNotFoundException) {
+				// Removed from the Docker host since it was cached. The next attempt will pull it again.
+				ImageCache.forEndpoint(endpoint).invalidate(endpoint, dockerImage.getDockerImageName());
+			}
+			throw e;
+		}
+		if (lease != null) {
+			// Held until the container is removed, even if it fails to start.
+			cacheVolumes.attach(lease, creation.id());
+		}
+		
+		LOGGER.info("Starting container with id " + creation.id() + ".");
+		startNanos = System.nanoTime();
+		try {
+			dockerClient.startContainer(creation.id());
+		} catch (Exception e) {
+			// Remove it now rather than leave it to the orphan sweep, which also gives back its cache volumes.
+			ContainerReaper.forCloud(dockerCloud).remove(dockerCloud, endpoint, creation.id(), dockerImage.getName());
+			throw e;
+		}
+		metrics.record(ProvisioningMetrics.Phase.CONTAINER_START, startNanos);
+		// Count it now rather than when its start event arrives, so capacity checks never miss it.
+		ContainerInventory.forEndpoint(dockerCloud, endpoint).started(creation.id(), dockerImage.getName());
+
+		return new StartedContainer(creation.id(), execUser, endpoint, slaveName);
+	}
+	
+}
@@ -1,14 +1,10 @@
 package com.github.kmbulebu.jenkins.plugins.dockercloud;
 
-import java.util.Arrays;
+import java.util.UUID;
 import java.util.logging.Logger;
 
+import com.github.kmbulebu.jenkins.plugins.dockercloud.CapacityReservations.Reservation;
 import com.spotify.docker.client.DockerClient;
-import com.spotify.docker.client.exceptions.ImageNotFoundException;
-import com.spotify.docker.client.messages.ContainerConfig;
-import com.spotify.docker.client.messages.ContainerCreation;
-import com.spotify.docker.client.messages.HostConfig;
-import com.spotify.docker.client.messages.ImageInfo;
 
 import hudson.model.Node;
 
@@ -23,11 +19,23 @@ public class CreateContainerCallable extends DockerClientCallable<Node> {
 	
 	private final DockerCloud dockerCloud;
 	private final DockerImage dockerImage;
+	private final ProvisioningBatch batch;
+	private final Reservation reservation;
 
 	public CreateContainerCallable(DockerClient dockerClient, DockerCloud dockerCloud, DockerImage dockerImage) {
+		this(dockerClient, dockerCloud, dockerImage, new ProvisioningBatch(dockerClient, dockerCloud, dockerCloud.getPrimaryEndpoint(), dockerImage, false), null);
+	}
+
+	/**
+	 * @param batch Shares the image resolution and container configuration with the other nodes of the same provision call.
+	 * @param reservation Capacity held for the container, released once it is running or creating it fails. May be null.
+	 */
+	public CreateContainerCallable(DockerClient dockerClient, DockerCloud dockerCloud, DockerImage dockerImage, ProvisioningBatch batch, Reservation reservation) {
 		super(dockerClient);
 		this.dockerCloud = dockerCloud;
 		this.dockerImage = dockerImage;
+		this.batch = batch;
+		this.reservation = reservation;
 	}
 	
 	private String getNodeDescription() {
@@ -36,121 +44,101 @@ public class CreateContainerCallable extends DockerClientCallable<Node> {
 
 	@Override
 	public Node callWithDocker(DockerClient dockerClient) throws Exception {
-		
-	    // Pull image.
-		boolean imageExists;
+		final WarmPool warmPool = WarmPool.forCloud(dockerCloud);
+		final ProvisioningMetrics metrics = ProvisioningMetrics.forImage(dockerCloud, dockerImage.getName());
+		StartedContainer container;
+		metrics.started();
 		try {
-			LOGGER.fine("Checking if image " + dockerImage.getDockerImageName() + " exists.");
-			if (dockerClient.inspectImage(dockerImage.getDockerImageName()) != null) {
-				imageExists = true;
+			// From the batch's endpoint, where the reservation was made.
+			container = warmPool.take(dockerCloud, dockerImage, batch.getEndpoint());
+			if (container != null) {
+				LOGGER.info("Using standby container " + container.getId() + " for image config '" + dockerImage.getName() + "'.");
+				warmPool.refillLater(dockerCloud);
+			} else if (dockerImage.isSlaveStartedWithContainer() && !dockerImage.isExecChannel()) {
+				// Named up front so the slave can be baked into the container's command.
+				container = batch.startContainer(UUID.randomUUID().toString().replace("-", "").substring(0, 12));
 			} else {
-				// Should be unreachable.
-				imageExists = false;
+				container = batch.startContainer();
 			}
-		} catch (ImageNotFoundException e) {
-			imageExists = false;
-		}
-		
-		LOGGER.fine("Image " + dockerImage + " exists? " + imageExists + ", Pull disabled? " + dockerImage.isPullDisabled());
-		
-		if (!imageExists || dockerImage.isPullForced()) {
-			if (dockerImage.isPullDisabled()) {
-				throw new IllegalStateException("Image '" + dockerImage.getDockerImageName() + "' does not exist on Docker cloud '" + dockerCloud.getDisplayName() + "' and pull is disabled.");
-			} 
-			LOGGER.info("Pulling image " + dockerImage.getDockerImageName() + ".");
-			dockerClient.pull(dockerImage.getDockerImageName());
-			LOGGER.info("Finished pulling image " + dockerImage.getDockerImageName() + ".");
-		} 
-
-		final ImageInfo imageInfo = dockerClient.inspectImage(dockerImage.getDockerImageName());
-		final String imageUser = imageInfo.config().user();
-		
-		
-		final ContainerConfig.Builder containerConfigBuilder = ContainerConfig.builder().image(dockerImage.getDockerImageName());
-		final HostConfig.Builder hostConfigBuilder = HostConfig.builder();
-		
-		LOGGER.fine("Setting cmd to 'cat'.");
-		//containerConfigBuilder.user("root");
-		containerConfigBuilder.attachStderr(true).attachStdout(true).tty(true);
-		//containerConfigBuilder.tty(true).cmd(new String[] {"sh","-c","mkfifo /jenkins-out && chmod a+w /jenkins-out && tail -f /jenkins-out"});
-		containerConfigBuilder.cmd(new String[] {"cat"});
-		
-		
-		// Set CPU shares. Hopefully this won't be a problem on any exotic Docker platforms.
-		hostConfigBuilder.cpuShares(dockerImage.getCpuShares());
-		
-		if (dockerImage.isMemoryLimited()) {
-			final Long memory = dockerImage.getMemoryLimitMB() * 1024 * 1024; // MB to bytes.
-			LOGGER.fine("Setting memory limit to '" + memory + "' for container.");
-			hostConfigBuilder.memory(memory);
-			
-			// Can only limit swap if you limit memory.
-			if (dockerImage.isSwapLimited()) {
-				final Long swap = dockerImage.getSwapLimitMB() * 1024 * 1024; // MB to bytes
-				final Long memorySwap = swap + memory;
-				LOGGER.fine("Setting memorySwap limit to '" + memorySwap + "' for container.");
-				hostConfigBuilder.memorySwap(memorySwap);
+		} finally {
+			metrics.finished();
+			// A started container is counted by the inventory from here on.
+			if (reservation != null) {
+				reservation.release();
 			}
 		}
 		
-		// Setup working directory
-		if (dockerImage.getWorkingDir() != null && dockerImage.getWorkingDir().length() > 0) {
-			containerConfigBuilder.workingDir(dockerImage.getWorkingDir());
+		final DockerLauncher launcher = new DockerLauncher(container.getExecUser());
+		launcher.setExecChannel(dockerImage.isExecChannel());
+		final String name;
+		if (container.getSlaveName() != null) {
+			launcher.setStartedWithContainer(true);
+			name = container.getSlaveName();
+		} else {
+			name = container.getId().substring(0, 12);
 		}
+		final DockerSlave slave = new DockerSlave(launcher, dockerCloud, name, container.getId(), getNodeDescription(), dockerImage.getRemoteFS(), dockerImage.getMode(), dockerImage.getLabelString(), dockerImage.getNodeProperties(), dockerImage.createRetentionStrategy());
+		slave.setEndpointUri(container.getEndpoint().getUri());
+		slave.setImageName(dockerImage.getName());
 		
-		// Apply labels to the container to make tracking it easier.
-		final DockerLabelsBuilder labelsBuilder = new DockerLabelsBuilder();
-		labelsBuilder.cloudName(dockerCloud.getName());
-		labelsBuilder.imageName(dockerImage.getName());
-		labelsBuilder.labelString(dockerImage.getLabelString());
-		containerConfigBuilder.labels(labelsBuilder.build());
-		
-		
-		
-		
-		// Set privileged if requested.
-		hostConfigBuilder.privileged(dockerImage.isPrivileged());
-		
+		return slave;
+	}
+	
+	/**
+	 * A started container waiting for a slave to be launched in it.
+	 */
+	static final class StartedContainer {
+		
+		private final String id;
+		private final String execUser;
+		private final DockerEndpoint endpoint;
+		private final String slaveName;
+		private final long startedMillis;
+		
+		StartedContainer(String id, String execUser, DockerEndpoint endpoint) {
+			this(id, execUser, endpoint, null);
+		}
 		
-		// Volumes
-		String[] volumeLines;
-		if (dockerImage.getVolumes() == null) {
-			volumeLines = new String[] {};
-		} else {
-			volumeLines = dockerImage.getVolumes().split("$");
+		/**
+		 * @param slaveName Node name of the slave the container runs as its main process, or null if it runs the placeholder command.
+		 */
+		StartedContainer(String id, String execUser, DockerEndpoint endpoint, String slaveName) {
+			this.id = id;
+			this.execUser = execUser;
+			this.endpoint = endpoint;
+			this.slaveName = slaveName;
+			this.startedMillis = System.currentTimeMillis();
 		}
 		
-		LOGGER.fine("Adding host binds and container volumes: " + Arrays.toString(volumeLines));
-		hostConfigBuilder.binds(volumeLines);
-		containerConfigBuilder.volumes(volumeLines);
+		String getId() {
+			return id;
+		}
 		
-		// Add host config 
-		containerConfigBuilder.hostConfig(hostConfigBuilder.build());
+		/**
+		 * @return User to exec the slave as, or null for the image default.
+		 */
+		String getExecUser() {
+			return execUser;
+		}
 		
-		LOGGER.info("Creating container from image " + dockerImage.getDockerImageName() + ".");
-		final ContainerCreation creation = dockerClient.createContainer(containerConfigBuilder.build());
+		/**
+		 * @return Endpoint the container runs on.
+		 */
+		DockerEndpoint getEndpoint() {
+			return endpoint;
+		}
 		
-		LOGGER.info("Starting container with id " + creation.id() + ".");
-		dockerClient.startContainer(creation.id());
-
-		// Tell the launcher which user to run under
-		String execUser;
-		if (dockerImage.getUserOverride() != null && dockerImage.getUserOverride().trim().length() > 0) {
-			LOGGER.info("Setting user to '" + dockerImage.getUserOverride() + "' for container.");
-			execUser = dockerImage.getUserOverride();
-		} else if (imageUser != null && imageUser.trim().length() > 0) {
-			// Use the user embedded in image.
-			execUser = imageUser.trim();
-		} else {
-			// Do not specify (usually root)
-			execUser = null;
+		/**
+		 * @return Node name of the slave the container was started with, or null if the slave must be exec'd.
+		 */
+		String getSlaveName() {
+			return slaveName;
 		}
 		
-		final DockerLauncher launcher = new DockerLauncher(execUser);
-		final String name = creation.id().substring(0, 12);
-		final DockerSlave slave = new DockerSlave(launcher, dockerCloud, name, creation.id(), getNodeDescription(), dockerImage.getRemoteFS(), dockerImage.getMode(), dockerImage.getLabelString(), dockerImage.getNodeProperties());
+		long getStartedMillis() {
+			return startedMillis;
+		}
 		
-		return slave;
 	}
 	
 }
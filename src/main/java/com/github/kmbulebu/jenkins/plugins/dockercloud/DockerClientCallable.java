@@ -12,15 +12,12 @@ public abstract class DockerClientCallable<V> implements Callable<V> {
 		this.dockerClient = dockerClient;
 	}
 
+	/**
+	 * The client is shared by the cloud, so it is left open.
+	 */
 	@Override
 	public V call() throws Exception {
-		try {
-			return callWithDocker(dockerClient);
-		} finally {
-			if (dockerClient != null) {
-				dockerClient.close();
-			}
-		}
+		return callWithDocker(dockerClient);
 	}
 	
 	public abstract V callWithDocker(final DockerClient dockerClient) throws Exception;
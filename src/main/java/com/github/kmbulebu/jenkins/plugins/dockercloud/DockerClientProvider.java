@@ -0,0 +1,113 @@
+package com.github.kmbulebu.jenkins.plugins.dockercloud;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.exceptions.DockerCertificateException;
+
+import hudson.model.Node;
+import hudson.slaves.Cloud;
+import jenkins.model.Jenkins;
+
+/**
+ * Keeps one long lived Docker client per Docker endpoint.
+ *
+ * Clouds are re-instantiated every time the global configuration is saved, and slaves keep a reference to the
+ * cloud instance that created them, so clients are cached by the endpoint's connection settings rather than on
+ * the instance. Clients for connection settings no cloud uses any more are closed when a new client is built, and
+ * periodically, but only once no slave runs on the endpoint and no container on it is waiting to be removed.
+ */
+final class DockerClientProvider {
+
+	private static final Logger LOGGER = Logger.getLogger(DockerClientProvider.class.getName());
+
+	private static final ConcurrentMap<String, DockerClient> CLIENTS = new ConcurrentHashMap<String, DockerClient>();
+
+	private DockerClientProvider() {
+	}
+
+	static DockerClient getClient(DockerEndpoint endpoint) throws DockerCertificateException {
+		final String connectionKey = endpoint.getConnectionKey();
+		final DockerClient cached = CLIENTS.get(connectionKey);
+		if (cached != null) {
+			return cached;
+		}
+
+		synchronized (CLIENTS) {
+			final DockerClient current = CLIENTS.get(connectionKey);
+			if (current != null) {
+				return current;
+			}
+			LOGGER.info("Building Docker client for endpoint " + endpoint.getUri() + ".");
+			final DockerClient dockerClient = endpoint.buildDockerClient();
+			CLIENTS.put(connectionKey, dockerClient);
+			closeUnused(connectionKey);
+			return dockerClient;
+		}
+	}
+
+	/**
+	 * Use a client for an endpoint instead of building one, closing any client it replaces. Lets benchmarks and
+	 * load tests run the provisioning code against a fake daemon.
+	 */
+	static void register(DockerEndpoint endpoint, DockerClient dockerClient) {
+		final DockerClient replaced = CLIENTS.put(endpoint.getConnectionKey(), dockerClient);
+		if (replaced != null && replaced != dockerClient) {
+			replaced.close();
+		}
+	}
+
+	/**
+	 * Close the clients of connections that no cloud, slave or pending container removal uses any more.
+	 */
+	static void closeUnused() {
+		synchronized (CLIENTS) {
+			closeUnused(null);
+		}
+	}
+
+	private static void closeUnused(String inUse) {
+		final Jenkins jenkins = Jenkins.getInstance();
+		if (jenkins == null) {
+			return;
+		}
+		final Set<String> used = usedConnections(jenkins);
+		if (inUse != null) {
+			used.add(inUse);
+		}
+		for (Map.Entry<String, DockerClient> entry : CLIENTS.entrySet()) {
+			if (!used.contains(entry.getKey()) && CLIENTS.remove(entry.getKey(), entry.getValue())) {
+				LOGGER.info("Nothing uses Docker connection " + entry.getKey() + " any more. Closing its client.");
+				entry.getValue().close();
+			}
+		}
+	}
+
+	/**
+	 * @return Connection keys of the Docker hosts used by a configured cloud, a slave or a pending container removal.
+	 */
+	static Set<String> usedConnections(Jenkins jenkins) {
+		final Set<String> used = new HashSet<String>();
+		for (Cloud cloud : jenkins.clouds) {
+			if (cloud instanceof DockerCloud) {
+				for (DockerEndpoint endpoint : ((DockerCloud) cloud).getAllEndpoints()) {
+					used.add(endpoint.getConnectionKey());
+				}
+			}
+		}
+		// Slaves keep the cloud instance that created them, so they may still be on an endpoint that was removed.
+		for (Node node : jenkins.getNodes()) {
+			if (node instanceof DockerSlave) {
+				used.add(((DockerSlave) node).getEndpoint().getConnectionKey());
+			}
+		}
+		used.addAll(ContainerReaper.getPendingConnections());
+		return used;
+	}
+
+}
@@ -1,5 +1,6 @@
 package com.github.kmbulebu.jenkins.plugins.dockercloud;
 
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
@@ -9,23 +10,30 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
 
+import com.github.kmbulebu.jenkins.plugins.dockercloud.CapacityReservations.Reservation;
 import com.spotify.docker.client.DefaultDockerClient;
 import com.spotify.docker.client.DockerCertificates;
 import com.spotify.docker.client.DockerClient;
-import com.spotify.docker.client.DockerClient.ListContainersParam;
 import com.spotify.docker.client.exceptions.DockerCertificateException;
 import com.spotify.docker.client.exceptions.DockerException;
 
 import hudson.Extension;
-import hudson.model.Computer;
 import hudson.model.Descriptor;
 import hudson.model.Label;
 import hudson.model.Node;
@@ -34,6 +42,9 @@ import hudson.slaves.Cloud;
 import hudson.slaves.NodeProvisioner;
 import hudson.slaves.NodeProvisioner.PlannedNode;
 import hudson.util.FormValidation;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
 
 /**
  * Docker cloud provider.
@@ -43,14 +54,32 @@ import hudson.util.FormValidation;
 public class DockerCloud extends AbstractCloudImpl {
 
 	private static final Logger LOGGER = Logger.getLogger(DockerCloud.class.getName());
-
-
+	
+	private static final int PROVISIONING_PARALLELISM_DEFAULT = 10;
+	
+	private static final int PROVISIONING_QUEUE_SIZE_DEFAULT = 200;
+	
+	private static final int RESOURCE_HEADROOM_PERCENT_DEFAULT = 10;
+	
+	private static final int CPU_OVERCOMMIT_RATIO_DEFAULT = 4;
+	
 	private Boolean useTLS;
 	private String uri;
 	private String certificatesPath;
 	private String containerNamePrefix;
+	private boolean agentJarCached;
+	private int provisioningParallelism = PROVISIONING_PARALLELISM_DEFAULT;
+	private int provisioningQueueSize = PROVISIONING_QUEUE_SIZE_DEFAULT;
+	private boolean resourceAdmission;
+	private Integer resourceHeadroomPercent;
+	private Integer cpuOvercommitRatio;
+	private List<DockerEndpoint> endpoints = Collections.emptyList();
+
+	// Never modified in place. Changes publish a new list so provisioning reads it without locking.
+	private volatile List<DockerImage> images;
 
-	private List<DockerImage> images;
+	// Image config found for each label, replaced whenever the image configs change.
+	private transient volatile ConcurrentMap<Label, ImageMatch> imagesByLabel = new ConcurrentHashMap<Label, ImageMatch>();
 
 	@DataBoundConstructor
 	public DockerCloud(String name, String instanceCapStr, Boolean useTLS, String uri, 
@@ -64,7 +93,7 @@ public class DockerCloud extends AbstractCloudImpl {
 		if (images == null) {
 			this.images = Collections.emptyList();
 		} else {
-			this.images = new ArrayList<DockerImage>(images);
+			this.images = Collections.unmodifiableList(new ArrayList<DockerImage>(images));
 		}
 		
 	}
@@ -109,6 +138,202 @@ public class DockerCloud extends AbstractCloudImpl {
 		this.containerNamePrefix = containerNamePrefix;
 	}
 
+	/**
+	 * @return Endpoints in addition to the primary endpoint formed by the cloud's own URI and TLS settings.
+	 */
+	public List<DockerEndpoint> getEndpoints() {
+		return endpoints;
+	}
+	
+	@DataBoundSetter
+	public void setEndpoints(List<DockerEndpoint> endpoints) {
+		if (endpoints == null) {
+			this.endpoints = Collections.emptyList();
+		} else {
+			this.endpoints = Collections.unmodifiableList(new ArrayList<DockerEndpoint>(endpoints));
+		}
+	}
+	
+	/**
+	 * @return The primary endpoint followed by any additional endpoints.
+	 */
+	public List<DockerEndpoint> getAllEndpoints() {
+		final List<DockerEndpoint> all = new ArrayList<DockerEndpoint>(endpoints.size() + 1);
+		all.add(getPrimaryEndpoint());
+		all.addAll(endpoints);
+		return all;
+	}
+	
+	DockerEndpoint getPrimaryEndpoint() {
+		return new DockerEndpoint(uri, useTLS, certificatesPath, String.valueOf(getInstanceCap()));
+	}
+	
+	/**
+	 * @return The endpoint with the given URI, the primary endpoint if the URI is null, or null if there is no such endpoint.
+	 */
+	DockerEndpoint getEndpoint(String endpointUri) {
+		if (endpointUri == null) {
+			return getPrimaryEndpoint();
+		}
+		for (DockerEndpoint endpoint : getAllEndpoints()) {
+			if (endpointUri.equals(endpoint.getUri())) {
+				return endpoint;
+			}
+		}
+		return null;
+	}
+
+	public boolean isAgentJarCached() {
+		return agentJarCached;
+	}
+	
+	@DataBoundSetter
+	public void setAgentJarCached(boolean agentJarCached) {
+		this.agentJarCached = agentJarCached;
+	}
+
+	/**
+	 * @return Maximum number of containers being created at once.
+	 */
+	public int getProvisioningParallelism() {
+		// Unset in configurations saved before the setting existed.
+		return provisioningParallelism < 1 ? PROVISIONING_PARALLELISM_DEFAULT : provisioningParallelism;
+	}
+	
+	@DataBoundSetter
+	public void setProvisioningParallelism(int provisioningParallelism) {
+		this.provisioningParallelism = provisioningParallelism;
+	}
+
+	/**
+	 * @return Maximum number of containers waiting to be created.
+	 */
+	public int getProvisioningQueueSize() {
+		return provisioningQueueSize < 1 ? PROVISIONING_QUEUE_SIZE_DEFAULT : provisioningQueueSize;
+	}
+	
+	@DataBoundSetter
+	public void setProvisioningQueueSize(int provisioningQueueSize) {
+		this.provisioningQueueSize = provisioningQueueSize;
+	}
+
+	/**
+	 * @return True to admit containers by the memory and CPU their image configs reserve on the host, in addition
+	 *         to the instance caps.
+	 */
+	public boolean isResourceAdmission() {
+		return resourceAdmission;
+	}
+	
+	@DataBoundSetter
+	public void setResourceAdmission(boolean resourceAdmission) {
+		this.resourceAdmission = resourceAdmission;
+	}
+
+	/**
+	 * @return Percentage of each host's memory and CPUs kept free of reservations.
+	 */
+	public int getResourceHeadroomPercent() {
+		// Unset in configurations saved before the setting existed.
+		return resourceHeadroomPercent == null ? RESOURCE_HEADROOM_PERCENT_DEFAULT : resourceHeadroomPercent;
+	}
+	
+	@DataBoundSetter
+	public void setResourceHeadroomPercent(int resourceHeadroomPercent) {
+		this.resourceHeadroomPercent = resourceHeadroomPercent;
+	}
+
+	/**
+	 * @return How many CPU shares may be reserved per CPU, as a multiple of one container's default shares.
+	 */
+	public int getCpuOvercommitRatio() {
+		return cpuOvercommitRatio == null || cpuOvercommitRatio < 1 ? CPU_OVERCOMMIT_RATIO_DEFAULT : cpuOvercommitRatio;
+	}
+	
+	@DataBoundSetter
+	public void setCpuOvercommitRatio(int cpuOvercommitRatio) {
+		this.cpuOvercommitRatio = cpuOvercommitRatio;
+	}
+
+	/**
+	 * Memory and CPUs of an endpoint's host, for the cloud's page.
+	 */
+	public HostCapacity getHostCapacity(DockerEndpoint endpoint) {
+		return HostCapacity.forEndpoint(endpoint);
+	}
+
+	/**
+	 * Health of an endpoint, for the cloud's page.
+	 */
+	public CircuitBreaker getEndpointCircuitBreaker(DockerEndpoint endpoint) {
+		return CircuitBreaker.forEndpoint(endpoint);
+	}
+
+	/**
+	 * Health of an image config, for the cloud's page.
+	 */
+	public CircuitBreaker getImageCircuitBreaker(DockerImage image) {
+		return CircuitBreaker.forImage(this, image.getName());
+	}
+
+	/**
+	 * Capacity held for containers not started yet, for the cloud's page.
+	 */
+	public CapacityReservations getCapacityReservations() {
+		return CapacityReservations.forCloud(this);
+	}
+
+	/**
+	 * Backlog of terminated containers waiting to be removed, for the cloud's page.
+	 */
+	public ContainerReaper getContainerReaper() {
+		return ContainerReaper.forCloud(this);
+	}
+
+	/**
+	 * Dependency cache volumes on the cloud's endpoints, for the cloud's page.
+	 */
+	public CacheVolumes getCacheVolumes() {
+		return CacheVolumes.forCloud(this);
+	}
+
+	/**
+	 * Results of the orphaned container sweep, for the cloud's page.
+	 */
+	public OrphanSweeper getOrphanSweeper() {
+		return OrphanSweeper.forCloud(this);
+	}
+
+	/**
+	 * Container creation queue and thread usage, for the cloud's page.
+	 */
+	public ProvisioningExecutor getProvisioningExecutor() {
+		return ProvisioningExecutor.forCloud(this);
+	}
+
+	/**
+	 * @return Provisioning metrics of each image config that has recorded any, for the cloud's page.
+	 */
+	public Collection<ProvisioningMetrics> getProvisioningMetrics() {
+		return ProvisioningMetrics.forCloud(this);
+	}
+
+	/**
+	 * Serve the provisioning metrics of every image config as JSON.
+	 */
+	public void doMetrics(StaplerRequest req, StaplerResponse rsp) throws IOException {
+		Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+		final JSONArray images = new JSONArray();
+		for (ProvisioningMetrics metrics : ProvisioningMetrics.forCloud(this)) {
+			images.add(metrics.toJSON());
+		}
+		final JSONObject json = new JSONObject();
+		json.put("cloud", getName());
+		json.put("images", images);
+		rsp.setContentType("application/json;charset=UTF-8");
+		rsp.getWriter().print(json.toString(2));
+	}
+
 	@Override
 	public Collection<PlannedNode> provision(Label label, int excessWorkload) {
 		// Identify which configuration supports the specified label.
@@ -119,12 +344,19 @@ public class DockerCloud extends AbstractCloudImpl {
 			return Collections.emptyList();
 		}
 		
+		final CircuitBreaker imageBreaker = CircuitBreaker.forImage(this, foundImage.getName());
+		if (!imageBreaker.isAllowing()) {
+			LOGGER.log(Level.FINE, "Image config '" + foundImage.getName() + "' is backing off after failures. Not provisioning.");
+			return Collections.emptyList();
+		}
+		
 		// Check if we're above a container total limit.
 		try {
 			final int containerCount = countAllRunningContainers();
 			LOGGER.log(Level.FINE, "Found " + containerCount + " total running slave containers.");
 			if (containerCount >= getInstanceCap()) {
 				LOGGER.log(Level.INFO, "Instance cap met. Can not provision any more.");
+				ProvisioningMetrics.forImage(this, foundImage.getName()).capRejected();
 				return Collections.emptyList();
 			}
 		} catch (DockerException e) {
@@ -144,6 +376,7 @@ public class DockerCloud extends AbstractCloudImpl {
 			LOGGER.log(Level.FINE, "Found " + containerCount + " running slave containers for this image.");
 			if (containerCount >= foundImage.getInstanceCap()) {
 				LOGGER.log(Level.INFO, "Image instance cap met. Can not provision any more.");
+				ProvisioningMetrics.forImage(this, foundImage.getName()).capRejected();
 				return Collections.emptyList();
 			}
 		} catch (DockerException e) {
@@ -160,17 +393,81 @@ public class DockerCloud extends AbstractCloudImpl {
 		// Provision some nodes
 		List<NodeProvisioner.PlannedNode> plannedNodes = new ArrayList<NodeProvisioner.PlannedNode>();
 		
-		LOGGER.log(Level.FINE, "Provisioning containers to meet an excess workload of " + excessWorkload + " jobs with label '" + label.toString() + "'.");
-		for (int i = 1; i <= excessWorkload; i++) {
-			DockerClient dockerClient;
+		// An image config recovering from failures is probed with a single node before it gets any more. The probe is
+		// only taken right before that node is submitted, so a plan that ends early does not use up the probe's slot.
+		final int workload = imageBreaker.isClosed() ? excessWorkload : 1;
+		
+		LOGGER.log(Level.FINE, "Provisioning containers to meet an excess workload of " + workload + " jobs with label '" + label + "'.");
+		final List<EndpointLoad> loads;
+		try {
+			loads = EndpointLoad.measure(this);
+		} catch (InterruptedException e) {
+			LOGGER.log(Level.WARNING, "Interrupted while measuring endpoint load.", e);
+			return Collections.emptyList();
+		}
+		final ProvisioningExecutor executor = ProvisioningExecutor.forCloud(this);
+		final CapacityReservations reservations = CapacityReservations.forCloud(this);
+		// The nodes on each endpoint share one image resolution and container spec, and start their containers with bounded parallelism.
+		final Map<DockerEndpoint, ProvisioningBatch> batches = new HashMap<DockerEndpoint, ProvisioningBatch>();
+		boolean capMet = false;
+		while (plannedNodes.size() < workload) {
+			final EndpointLoad load = EndpointLoad.leastLoaded(loads);
+			if (load == null) {
+				LOGGER.log(Level.INFO, "No healthy endpoint with capacity left. Planned " + plannedNodes.size() + " of " + workload + " nodes.");
+				break;
+			}
+			// Hold capacity for the node until its container is running, so concurrent and later plans see it.
+			final Reservation reservation;
 			try {
-				dockerClient = buildDockerClient();
-			} catch (DockerCertificateException e) {
-				LOGGER.log(Level.SEVERE, "Could not request a new docker container. There's a problem with the TLS certificates. " + e.getMessage(), e);
-				return Collections.emptyList();
+				reservation = reservations.tryReserve(this, load.getEndpoint(), foundImage);
+			} catch (DockerException | DockerCertificateException e) {
+				LOGGER.log(Level.WARNING, "Could not reserve capacity on endpoint " + load.getEndpoint().getUri() + ". " + e.getMessage(), e);
+				loads.remove(load);
+				continue;
+			} catch (InterruptedException e) {
+				LOGGER.log(Level.WARNING, "Interrupted while reserving capacity.", e);
+				break;
 			}
-			final CreateContainerCallable containerCallable = new CreateContainerCallable(dockerClient, this, foundImage);
-			plannedNodes.add(new NodeProvisioner.PlannedNode(name, Computer.threadPoolForRemoting.submit(containerCallable), 1));
+			if (reservation == null) {
+				// Either the endpoint is full, or the cloud or image cap is met and every endpoint will say so.
+				capMet = true;
+				loads.remove(load);
+				continue;
+			}
+			ProvisioningBatch batch = batches.get(load.getEndpoint());
+			if (batch == null) {
+				final DockerClient dockerClient;
+				try {
+					dockerClient = getDockerClient(load.getEndpoint());
+				} catch (DockerCertificateException e) {
+					LOGGER.log(Level.SEVERE, "Could not request a new docker container on endpoint " + load.getEndpoint().getUri() + ". There's a problem with the TLS certificates. " + e.getMessage(), e);
+					reservation.release();
+					loads.remove(load);
+					continue;
+				}
+				batch = new ProvisioningBatch(dockerClient, this, load.getEndpoint(), foundImage, false);
+				batches.put(load.getEndpoint(), batch);
+			}
+			final CreateContainerCallable containerCallable = new CreateContainerCallable(batch.getDockerClient(), this, foundImage, batch, reservation);
+			if (!imageBreaker.tryAcquire()) {
+				// Another review took the probe.
+				reservation.release();
+				break;
+			}
+			final Future<Node> future;
+			try {
+				future = executor.submit(containerCallable);
+			} catch (RejectedExecutionException e) {
+				reservation.release();
+				imageBreaker.cancelProbe();
+				LOGGER.log(Level.INFO, "Provisioning queue is full. Planned " + plannedNodes.size() + " of " + workload + " nodes.");
+				break;
+			}
+			load.add(foundImage);
+			plannedNodes.add(new NodeProvisioner.PlannedNode(name, future, 1));
+		}
+		if (capMet && plannedNodes.size() < workload) {
+			ProvisioningMetrics.forImage(this, foundImage.getName()).capRejected();
 		}
 		return plannedNodes;
 	}
@@ -182,55 +479,100 @@ public class DockerCloud extends AbstractCloudImpl {
 		if (foundImage == null) {
 			LOGGER.log(Level.FINE, "No matching labels.");
 			return false;
-		} else {	
-			return true;
 		}
+		// Answered from the circuit breakers, so a failing daemon or image is not asked again on every review.
+		if (!CircuitBreaker.forImage(this, foundImage.getName()).isAllowing()) {
+			LOGGER.log(Level.FINE, "Image config '" + foundImage.getName() + "' is backing off after failures.");
+			return false;
+		}
+		for (DockerEndpoint endpoint : getAllEndpoints()) {
+			if (CircuitBreaker.isAvailable(this, endpoint)) {
+				return true;
+			}
+		}
+		LOGGER.log(Level.FINE, "Every endpoint is backing off after failures.");
+		return false;
 	}
 	
 	private int countAllRunningContainers() throws DockerException, InterruptedException, DockerCertificateException {
 		return countRunningContainers(null);
 	}
 	
-	private int countRunningContainers(String imageName) throws DockerException, InterruptedException, DockerCertificateException {
-		// The could be a performance hog in huge Docker environments. Replacing with
-		// docker labels/metadata is the plan.
-		DockerClient dockerClient = null;
-		
-		try {
-			dockerClient = buildDockerClient();
-			List<ListContainersParam> params = new ArrayList<ListContainersParam>(2);
-			params.add(ListContainersParam.withLabel(DockerLabelsBuilder.CLOUD_NAME, DockerLabelsBuilder.sanitize(getName())));
-			if (imageName != null) {
-				params.add(ListContainersParam.withLabel(DockerLabelsBuilder.IMAGE_NAME, DockerLabelsBuilder.sanitize(imageName)));
-			}
-			return dockerClient.listContainers(params.toArray(new ListContainersParam[params.size()])).size();
-		} finally {
-			if (dockerClient != null) {
-				dockerClient.close();
-			}
+	int countRunningContainers(String imageName) throws DockerException, InterruptedException, DockerCertificateException {
+		// Served from the event driven inventories. Only hits a daemon to seed or when its events stream is down.
+		int count = 0;
+		for (DockerEndpoint endpoint : getAllEndpoints()) {
+			count += ContainerInventory.forEndpoint(this, endpoint).countRunning(this, endpoint, imageName);
 		}
+		return count;
 	}
 
 	public List<DockerImage> getImages() {
 		return images;
 	}
 
+	/**
+	 * Background refresh status of force pulled images on an endpoint, for the cloud's page.
+	 */
+	public ImageRefresher getImageRefresher(DockerEndpoint endpoint) {
+		return ImageRefresher.forEndpoint(endpoint);
+	}
+
+	/**
+	 * @return The image config with the given name, or null if there is none.
+	 */
+	public DockerImage getImage(String imageName) {
+		for (DockerImage image : getImages()) {
+			if (image.getName().equals(imageName)) {
+				return image;
+			}
+		}
+		return null;
+	}
+
 	public synchronized void addImage(DockerImage image) {
-		images.add(image);
+		final List<DockerImage> updated = new ArrayList<DockerImage>(images);
+		updated.add(image);
+		setImages(updated);
 	}
 
 	public synchronized void removeImage(DockerImage image) {
-		images.remove(image);
+		final List<DockerImage> updated = new ArrayList<DockerImage>(images);
+		updated.remove(image);
+		setImages(updated);
+	}
+
+	private void setImages(List<DockerImage> updated) {
+		images = Collections.unmodifiableList(updated);
+		imagesByLabel = new ConcurrentHashMap<Label, ImageMatch>();
 	}
 
 	public Object readResolve() {
+		if (endpoints == null) {
+			endpoints = Collections.emptyList();
+		}
+		setImages(images == null ? new ArrayList<DockerImage>() : new ArrayList<DockerImage>(images));
 		for (DockerImage image : getImages()) {
 			image.readResolve();
 		}
 		return this;
 	}
 	
-	private DockerImage findDockerImageForLabel(Label label) {
+	DockerImage findDockerImageForLabel(Label label) {
+		if (label == null) {
+			// Cheap, and ConcurrentHashMap has no null key.
+			return findDockerImageForLabelUncached(null);
+		}
+		final ConcurrentMap<Label, ImageMatch> matches = imagesByLabel;
+		ImageMatch match = matches.get(label);
+		if (match == null) {
+			match = new ImageMatch(findDockerImageForLabelUncached(label));
+			matches.putIfAbsent(label, match);
+		}
+		return match.image;
+	}
+	
+	DockerImage findDockerImageForLabelUncached(Label label) {
 		for (DockerImage image : getImages()) {
 			if (dockerImageMatchesLabel(image, label)) {
 				return image;
@@ -240,7 +582,20 @@ public class DockerCloud extends AbstractCloudImpl {
 	}
 	
 	private boolean dockerImageMatchesLabel(DockerImage image, Label label) {
-		return label == null ? image.getMode() == Node.Mode.NORMAL : label.matches(Label.parse(image.getLabelString()));
+		return label == null ? image.getMode() == Node.Mode.NORMAL : label.matches(image.getLabelAtoms());
+	}
+	
+	/**
+	 * Result of a label lookup. Holds null when no image config matches, which the map can not.
+	 */
+	private static final class ImageMatch {
+		
+		private final DockerImage image;
+		
+		private ImageMatch(DockerImage image) {
+			this.image = image;
+		}
+		
 	}
 
 	@Extension
@@ -335,6 +690,44 @@ public class DockerCloud extends AbstractCloudImpl {
 			return FormValidation.ok(result);
 		}
 		
+		public FormValidation doCheckProvisioningParallelism(@QueryParameter String provisioningParallelism) {
+			return checkPositiveNumber(provisioningParallelism);
+		}
+
+		public FormValidation doCheckProvisioningQueueSize(@QueryParameter String provisioningQueueSize) {
+			return checkPositiveNumber(provisioningQueueSize);
+		}
+
+		public FormValidation doCheckResourceHeadroomPercent(@QueryParameter String resourceHeadroomPercent) {
+			if (resourceHeadroomPercent == null || resourceHeadroomPercent.length() < 1) {
+				return FormValidation.error("Required");
+			}
+			if (!resourceHeadroomPercent.matches("\\d+")) {
+				return FormValidation.error("Must be a number");
+			}
+			if (Integer.parseInt(resourceHeadroomPercent) > 90) {
+				return FormValidation.error("Must be at most 90.");
+			}
+			return FormValidation.ok();
+		}
+
+		public FormValidation doCheckCpuOvercommitRatio(@QueryParameter String cpuOvercommitRatio) {
+			return checkPositiveNumber(cpuOvercommitRatio);
+		}
+
+		private FormValidation checkPositiveNumber(String value) {
+			if (value == null || value.length() < 1) {
+				return FormValidation.error("Required");
+			}
+			if (!value.matches("\\d+")) {
+				return FormValidation.error("Must be a number");
+			}
+			if (Integer.parseInt(value) < 1) {
+				return FormValidation.error("Must be at least one.");
+			}
+			return FormValidation.ok();
+		}
+		
 		public FormValidation doCheckContainerNamePrefix(@QueryParameter String containerNamePrefix) {
 			if (containerNamePrefix == null || containerNamePrefix.length() < 1) {
 				FormValidation.error("Required");
@@ -344,21 +737,19 @@ public class DockerCloud extends AbstractCloudImpl {
 
 	}
 
+	/**
+	 * Get the shared Docker client for the cloud's primary endpoint. The client is thread safe and pools its
+	 * connections, so callers must not close it. It is rebuilt only when the connection settings change.
+	 */
+	public DockerClient getDockerClient() throws DockerCertificateException {
+		return getDockerClient(getPrimaryEndpoint());
+	}
 	
-	public DockerClient buildDockerClient() throws DockerCertificateException {
-		final URI dockerUri = URI.create(uri);
-
-		DockerClient dockerClient;
-
-		if (Boolean.TRUE.equals(useTLS)) {
-			final Path certsPath = Paths.get(certificatesPath);
-			final DockerCertificates dockerCerts = new DockerCertificates(certsPath);
-			dockerClient = new DefaultDockerClient(dockerUri, dockerCerts);
-		} else {
-			dockerClient = new DefaultDockerClient(dockerUri);
-		}
-
-		return dockerClient;
+	/**
+	 * Get the shared Docker client for one of the cloud's endpoints. Callers must not close it.
+	 */
+	public DockerClient getDockerClient(DockerEndpoint endpoint) throws DockerCertificateException {
+		return DockerClientProvider.getClient(endpoint);
 	}
 
 }
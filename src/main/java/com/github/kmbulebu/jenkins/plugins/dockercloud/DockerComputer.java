@@ -3,11 +3,23 @@ package com.github.kmbulebu.jenkins.plugins.dockercloud;
 import hudson.slaves.AbstractCloudComputer;
 
 public class DockerComputer extends AbstractCloudComputer<DockerSlave> {
+	
+	private volatile LaunchMonitor launchMonitor = new LaunchMonitor();
 
 	public DockerComputer(DockerSlave slave) {
 		super(slave);
 	}
 	
+	/**
+	 * Begin tracking a new launch attempt.
+	 */
+	LaunchMonitor startLaunch() {
+		launchMonitor = new LaunchMonitor();
+		return launchMonitor;
+	}
 	
+	LaunchMonitor getLaunchMonitor() {
+		return launchMonitor;
+	}
 
 }
@@ -0,0 +1,21 @@
+package com.github.kmbulebu.jenkins.plugins.dockercloud;
+
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import hudson.slaves.ComputerListener;
+
+/**
+ * Wakes up the launcher of a Docker slave as soon as its JNLP connection is established.
+ */
+@Extension
+public class DockerComputerListener extends ComputerListener {
+
+	@Override
+	public void onOnline(Computer c, TaskListener listener) {
+		if (c instanceof DockerComputer) {
+			((DockerComputer) c).getLaunchMonitor().online();
+		}
+	}
+
+}
@@ -0,0 +1,162 @@
+package com.github.kmbulebu.jenkins.plugins.dockercloud;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+import com.spotify.docker.client.DefaultDockerClient;
+import com.spotify.docker.client.DockerCertificates;
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.exceptions.DockerCertificateException;
+
+import hudson.Extension;
+import hudson.model.Describable;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+import jenkins.model.Jenkins;
+
+/**
+ * A Docker daemon that a cloud can run containers on.
+ *
+ * The cloud's own URI and TLS settings form its primary endpoint. Additional endpoints spread the cloud's
+ * containers over more daemons, each with its own instance cap.
+ */
+public class DockerEndpoint implements Describable<DockerEndpoint> {
+
+	private static final String CONNECTION_POOL_SIZE_PROPERTY = DockerCloud.class.getName() + ".connectionPoolSize";
+
+	private static final int MAX_STREAMING_CONNECTIONS = 1000;
+
+	private static final int CONNECTION_POOL_HEADROOM = 50;
+
+	private final String uri;
+	private final Boolean useTLS;
+	private final String certificatesPath;
+	private final int instanceCap;
+
+	@DataBoundConstructor
+	public DockerEndpoint(String uri, Boolean useTLS, String certificatesPath, String instanceCapStr) {
+		this.uri = uri;
+		this.useTLS = useTLS;
+		this.certificatesPath = certificatesPath;
+		if (instanceCapStr == null || "".equals(instanceCapStr)) {
+			instanceCap = Integer.MAX_VALUE;
+		} else {
+			instanceCap = Integer.parseInt(instanceCapStr);
+		}
+	}
+
+	public String getUri() {
+		return uri;
+	}
+
+	public Boolean getUseTLS() {
+		return useTLS;
+	}
+
+	public String getCertificatesPath() {
+		return certificatesPath;
+	}
+
+	public String getInstanceCapStr() {
+		if (instanceCap == Integer.MAX_VALUE) {
+			return "";
+		} else {
+			return String.valueOf(instanceCap);
+		}
+	}
+
+	public int getInstanceCap() {
+		return instanceCap;
+	}
+
+	/**
+	 * Identifies the connection settings. State kept per Docker host, such as clients and image caches, is keyed by it.
+	 */
+	String getConnectionKey() {
+		return uri + '|' + Boolean.TRUE.equals(useTLS) + '|' + (Boolean.TRUE.equals(useTLS) ? certificatesPath : "");
+	}
+
+	DockerClient buildDockerClient() throws DockerCertificateException {
+		final URI dockerUri = URI.create(uri);
+
+		final DefaultDockerClient.Builder builder = DefaultDockerClient.builder().uri(dockerUri);
+
+		if (Boolean.TRUE.equals(useTLS)) {
+			final Path certsPath = Paths.get(certificatesPath);
+			builder.dockerCertificates(new DockerCertificates(certsPath));
+		}
+
+		// Every running slave holds a connection open for its exec stream, so size the pool past the instance cap.
+		final int defaultPoolSize = Math.min(instanceCap, MAX_STREAMING_CONNECTIONS) + CONNECTION_POOL_HEADROOM;
+		builder.connectionPoolSize(Integer.getInteger(CONNECTION_POOL_SIZE_PROPERTY, defaultPoolSize));
+
+		return builder.build();
+	}
+
+	@Override
+	public String toString() {
+		return uri;
+	}
+
+	@Override
+	public Descriptor<DockerEndpoint> getDescriptor() {
+		return (DescriptorImpl) Jenkins.getInstance().getDescriptor(getClass());
+	}
+
+	@Extension
+	public static final class DescriptorImpl extends Descriptor<DockerEndpoint> {
+
+		public DescriptorImpl() {
+			super(DockerEndpoint.class);
+		}
+
+		@Override
+		public String getDisplayName() {
+			return "Docker Endpoint";
+		}
+
+		public FormValidation doCheckUri(@QueryParameter String uri) {
+			if (uri == null || uri.length() < 1) {
+				return FormValidation.error("Required");
+			}
+			try {
+				new URI(uri);
+			} catch (URISyntaxException e) {
+				return FormValidation.error("Invalid URI.");
+			}
+			return FormValidation.ok();
+		}
+
+		public FormValidation doCheckInstanceCapStr(@QueryParameter String instanceCapStr) {
+			if (instanceCapStr == null || instanceCapStr.length() < 1) {
+				return FormValidation.ok();
+			}
+			if (!instanceCapStr.matches("\\d+")) {
+				return FormValidation.error("Must be a number");
+			}
+			if (Integer.parseInt(instanceCapStr) < 1) {
+				return FormValidation.error("Must be at least one.");
+			}
+			return FormValidation.ok();
+		}
+
+		public FormValidation doCheckCertificatesPath(@QueryParameter String certificatesPath, @QueryParameter Boolean useTLS) {
+			return getCloudDescriptor().doCheckCertificatesPath(certificatesPath, useTLS);
+		}
+
+		public FormValidation doTestConnection(@QueryParameter Boolean useTLS, @QueryParameter String uri, @QueryParameter String certificatesPath) {
+			return getCloudDescriptor().doTestConnection(useTLS, uri, certificatesPath);
+		}
+
+		private DockerCloud.DescriptorImpl getCloudDescriptor() {
+			return (DockerCloud.DescriptorImpl) Jenkins.getInstance().getDescriptor(DockerCloud.class);
+		}
+
+	}
+
+}
@@ -0,0 +1,371 @@
+package com.github.kmbulebu.jenkins.plugins.dockercloud;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.net.ssl.SSLSocket;
+
+import com.spotify.docker.client.DockerCertificates;
+import com.spotify.docker.client.exceptions.DockerCertificateException;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jnr.unixsocket.UnixSocketAddress;
+import jnr.unixsocket.UnixSocketChannel;
+
+/**
+ * A started Docker exec whose stdin, stdout and stderr are all connected, for a remoting channel to run over.
+ *
+ * docker-client only streams exec output, so the exec is started here with a raw HTTP upgrade request on a
+ * connection of its own. Once the daemon hijacks the connection, everything written goes to the process's stdin, and
+ * the daemon sends its output multiplexed into stdout and stderr frames. Stdout is read as a plain stream and stderr
+ * is copied to the launch log.
+ *
+ * Nothing on the stream has a read timeout once it carries a channel, so the upgrade, and anything else that must
+ * finish in time, is bounded by a deadline that aborts the connection.
+ */
+final class DockerExecStream implements Closeable {
+
+	private static final Logger LOGGER = Logger.getLogger(DockerExecStream.class.getName());
+
+	private static final int CONNECT_TIMEOUT_MS = 10000;
+
+	private static final int MAX_HEADER_BYTES = 16384;
+
+	private static final ScheduledExecutorService DEADLINES = Executors.newSingleThreadScheduledExecutor(
+			new NamingThreadFactory(new DaemonThreadFactory(), "Docker exec stream deadline"));
+
+	private final Closeable connection;
+	private final InputStream stdout;
+	private final OutputStream stdin;
+
+	private DockerExecStream(Closeable connection, InputStream in, OutputStream out, OutputStream stderr) {
+		this.connection = connection;
+		this.stdout = new Demultiplexer(in, stderr);
+		this.stdin = out;
+	}
+
+	/**
+	 * Start an exec created with stdin, stdout and stderr attached and no TTY.
+	 *
+	 * @param stderr Receives the process's stderr.
+	 * @param timeoutMillis How long connecting and the daemon's response to the upgrade may take.
+	 */
+	static DockerExecStream start(DockerEndpoint endpoint, String execId, OutputStream stderr, long timeoutMillis) throws IOException, DockerCertificateException {
+		final URI uri = URI.create(endpoint.getUri());
+		final Closeable connection;
+		final InputStream in;
+		final OutputStream out;
+		final String host;
+		Socket socket = null;
+		if ("unix".equals(uri.getScheme())) {
+			final UnixSocketChannel channel = UnixSocketChannel.open(new UnixSocketAddress(new File(uri.getPath())));
+			connection = channel;
+			in = new ChannelInputStream(channel);
+			out = new ChannelOutputStream(channel);
+			host = "docker";
+		} else {
+			socket = connect(endpoint, uri, timeoutMillis);
+			connection = socket;
+			in = socket.getInputStream();
+			out = socket.getOutputStream();
+			host = uri.getHost() + ":" + socket.getPort();
+		}
+
+		// UNIX socket channels have no read timeout to set, so they are aborted at the deadline instead.
+		final ScheduledFuture<?> deadline = socket == null ? abortAfter(connection, timeoutMillis) : null;
+		try {
+			final byte[] body = "{\"Detach\":false,\"Tty\":false}".getBytes(StandardCharsets.UTF_8);
+			final String request = "POST /exec/" + execId + "/start HTTP/1.1\r\n"
+					+ "Host: " + host + "\r\n"
+					+ "Content-Type: application/json\r\n"
+					+ "Content-Length: " + body.length + "\r\n"
+					+ "Connection: Upgrade\r\n"
+					+ "Upgrade: tcp\r\n"
+					+ "\r\n";
+			out.write(request.getBytes(StandardCharsets.US_ASCII));
+			out.write(body);
+			out.flush();
+
+			final String headers = readHeaders(in);
+			final String statusLine = headers.substring(0, headers.indexOf("\r\n"));
+			// 101 from daemons that honour the upgrade, 200 from older ones that hijack anyway.
+			if (!statusLine.contains(" 101 ") && !statusLine.contains(" 200 ")) {
+				throw new IOException("Docker refused to start exec " + execId + ". " + statusLine);
+			}
+			if (socket != null) {
+				// From here on the stream carries a channel, which can be quiet for any length of time.
+				socket.setSoTimeout(0);
+			}
+		} catch (IOException | RuntimeException e) {
+			closeQuietly(connection);
+			throw e;
+		} finally {
+			if (deadline != null) {
+				deadline.cancel(false);
+			}
+		}
+		return new DockerExecStream(connection, in, out, stderr);
+	}
+
+	private static Socket connect(DockerEndpoint endpoint, URI uri, long timeoutMillis) throws IOException, DockerCertificateException {
+		final boolean tls = Boolean.TRUE.equals(endpoint.getUseTLS()) || "https".equals(uri.getScheme());
+		final int port = uri.getPort() != -1 ? uri.getPort() : (tls ? 2376 : 2375);
+		final Socket plain = new Socket();
+		plain.connect(new InetSocketAddress(uri.getHost(), port), CONNECT_TIMEOUT_MS);
+		plain.setTcpNoDelay(true);
+		// Also bounds the TLS handshake.
+		plain.setSoTimeout((int) Math.min(Integer.MAX_VALUE, timeoutMillis));
+		if (!tls) {
+			return plain;
+		}
+		final DockerCertificates certificates = new DockerCertificates(Paths.get(endpoint.getCertificatesPath()));
+		final SSLSocket socket = (SSLSocket) certificates.sslContext().getSocketFactory().createSocket(plain, uri.getHost(), port, true);
+		socket.startHandshake();
+		if (!certificates.hostnameVerifier().verify(uri.getHost(), socket.getSession())) {
+			socket.close();
+			throw new IOException("Certificate of " + uri.getHost() + " does not match its host name.");
+		}
+		return socket;
+	}
+
+	private static String readHeaders(InputStream in) throws IOException {
+		// Byte at a time, so nothing after the headers is consumed.
+		final ByteArrayOutputStream headers = new ByteArrayOutputStream();
+		int matched = 0;
+		while (matched < 4) {
+			final int b = in.read();
+			if (b < 0) {
+				throw new EOFException("Docker closed the connection before responding.");
+			}
+			headers.write(b);
+			if (headers.size() > MAX_HEADER_BYTES) {
+				throw new IOException("Response headers from Docker are too long.");
+			}
+			matched = (b == (matched % 2 == 0 ? '\r' : '\n')) ? matched + 1 : (b == '\r' ? 1 : 0);
+		}
+		return new String(headers.toByteArray(), StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * @return The process's stdout.
+	 */
+	InputStream getInputStream() {
+		return stdout;
+	}
+
+	/**
+	 * @return The process's stdin.
+	 */
+	OutputStream getOutputStream() {
+		return stdin;
+	}
+
+	@Override
+	public void close() {
+		closeQuietly(connection);
+	}
+
+	/**
+	 * Abort the connection unless the returned deadline is cancelled in time. Reads and writes blocked on it fail.
+	 */
+	ScheduledFuture<?> abortAfter(long timeoutMillis) {
+		return abortAfter(connection, timeoutMillis);
+	}
+
+	private static ScheduledFuture<?> abortAfter(final Closeable connection, long timeoutMillis) {
+		return DEADLINES.schedule(new Runnable() {
+			@Override
+			public void run() {
+				LOGGER.fine("Deadline passed. Aborting exec connection.");
+				if (connection instanceof UnixSocketChannel) {
+					// Closing the descriptor does not wake a thread blocked reading it. Shutting it down does.
+					try {
+						((UnixSocketChannel) connection).shutdownInput();
+						((UnixSocketChannel) connection).shutdownOutput();
+					} catch (IOException e) {
+						LOGGER.log(Level.FINE, "Error while shutting down exec connection. " + e.getMessage(), e);
+					}
+				}
+				closeQuietly(connection);
+			}
+		}, timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			LOGGER.log(Level.FINE, "Error while closing exec connection. " + e.getMessage(), e);
+		}
+	}
+
+	/*
+	 * Splits the daemon's frames into stdout, which is returned, and stderr, which is copied out. Each frame is an
+	 * 8 byte header, holding the stream type and the payload length, followed by the payload.
+	 */
+	private static final class Demultiplexer extends InputStream {
+
+		private static final int STDERR = 2;
+
+		private final InputStream in;
+		private final OutputStream stderr;
+		private final byte[] header = new byte[8];
+		private final byte[] discard = new byte[4096];
+		private int remaining;
+
+		private Demultiplexer(InputStream in, OutputStream stderr) {
+			this.in = in;
+			this.stderr = stderr;
+		}
+
+		@Override
+		public int read() throws IOException {
+			final byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			while (remaining == 0) {
+				if (!readFully(header, header.length)) {
+					return -1;
+				}
+				final int type = header[0];
+				final int length = ByteBuffer.wrap(header, 4, 4).getInt();
+				if (type == STDERR) {
+					copyStderr(length);
+				} else {
+					remaining = length;
+				}
+			}
+			final int read = in.read(b, off, Math.min(len, remaining));
+			if (read < 0) {
+				return -1;
+			}
+			remaining -= read;
+			return read;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return Math.min(remaining, in.available());
+		}
+
+		private void copyStderr(int length) throws IOException {
+			int left = length;
+			while (left > 0) {
+				final int read = in.read(discard, 0, Math.min(left, discard.length));
+				if (read < 0) {
+					throw new EOFException("Exec stream ended inside a frame.");
+				}
+				stderr.write(discard, 0, read);
+				left -= read;
+			}
+			stderr.flush();
+		}
+
+		private boolean readFully(byte[] buffer, int length) throws IOException {
+			int read = 0;
+			while (read < length) {
+				final int n = in.read(buffer, read, length - read);
+				if (n < 0) {
+					if (read == 0) {
+						return false;
+					}
+					throw new EOFException("Exec stream ended inside a frame header.");
+				}
+				read += n;
+			}
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+
+	}
+
+	/*
+	 * Reads a UNIX socket channel directly. Channels.newInputStream holds the channel's blocking lock while it
+	 * reads, which would stop the other direction from writing.
+	 */
+	private static final class ChannelInputStream extends InputStream {
+
+		private final UnixSocketChannel channel;
+
+		private ChannelInputStream(UnixSocketChannel channel) {
+			this.channel = channel;
+		}
+
+		@Override
+		public int read() throws IOException {
+			final byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			return channel.read(ByteBuffer.wrap(b, off, len));
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+
+	}
+
+	private static final class ChannelOutputStream extends OutputStream {
+
+		private final UnixSocketChannel channel;
+
+		private ChannelOutputStream(UnixSocketChannel channel) {
+			this.channel = channel;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			final ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+
+	}
+
+}
@@ -1,8 +1,12 @@
 package com.github.kmbulebu.jenkins.plugins.dockercloud;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
 
+import org.jenkinsci.plugins.durabletask.executors.OnceRetentionStrategy;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
@@ -10,9 +14,12 @@ import org.kohsuke.stapler.QueryParameter;
 import hudson.Extension;
 import hudson.model.Describable;
 import hudson.model.Descriptor;
+import hudson.model.Label;
 import hudson.model.Node;
+import hudson.model.labels.LabelAtom;
 import hudson.slaves.NodeProperty;
 import hudson.slaves.NodePropertyDescriptor;
+import hudson.slaves.RetentionStrategy;
 import hudson.util.DescribableList;
 import hudson.util.FormValidation;
 import jenkins.model.Jenkins;
@@ -24,6 +31,16 @@ import jenkins.model.Jenkins;
  */
 public class DockerImage implements Describable<DockerImage> {
 
+	private static final Logger LOGGER = Logger.getLogger(DockerImage.class.getName());
+
+	private static final int IDLE_TTL_MINUTES_DEFAULT = 60;
+
+	private static final int MAX_BUILDS_DEFAULT = 1;
+
+	private static final int REUSE_IDLE_MINUTES_DEFAULT = 10;
+
+	private static final int CACHE_VOLUME_IDLE_DAYS_DEFAULT = 14;
+
 	private String name;
 	private String labelString;
 	private Node.Mode mode;
@@ -42,10 +59,29 @@ public class DockerImage implements Describable<DockerImage> {
 	private long swapLimitMB;
 	private boolean privileged;
 	private String workingDir;
+	private int minIdle;
+	// Null in configurations saved before the setting existed.
+	private Integer idleTTLMinutes;
+	// Null in configurations saved before the settings existed. XStream does not run field initializers.
+	private Integer maxBuilds;
+	private Integer reuseIdleMinutes;
+	private String cleanupCommand;
+	private boolean slaveStartedWithContainer;
+	private boolean execChannel;
+	private String cacheVolumes;
+	private long cacheVolumeMaxSizeMB;
+	// Null in configurations saved before the setting existed.
+	private Integer cacheVolumeIdleDays;
 
 	// Prototype
 	private String volumes;
 
+	// Parsed from labelString on first use.
+	private transient volatile Set<LabelAtom> labelAtoms;
+
+	// Parsed from cacheVolumes on first use.
+	private transient volatile List<CacheVolumes.Definition> cacheVolumeDefinitions;
+
 	private DescribableList<NodeProperty<?>,NodePropertyDescriptor> nodeProperties = new DescribableList<NodeProperty<?>,NodePropertyDescriptor>(Jenkins.getInstance());
 
 
@@ -110,6 +146,19 @@ public class DockerImage implements Describable<DockerImage> {
 	@DataBoundSetter
 	public void setLabelString(String labelString) {
 		this.labelString = labelString;
+		this.labelAtoms = null;
+	}
+
+	/**
+	 * @return The labels of this image config. Parsed once, as they are matched on every provisioning tick.
+	 */
+	public Set<LabelAtom> getLabelAtoms() {
+		Set<LabelAtom> atoms = labelAtoms;
+		if (atoms == null) {
+			atoms = Collections.unmodifiableSet(Label.parse(labelString));
+			labelAtoms = atoms;
+		}
+		return atoms;
 	}
 
 	public Node.Mode getMode() {
@@ -238,6 +287,173 @@ public class DockerImage implements Describable<DockerImage> {
 		this.workingDir = workingDir;
 	}
 
+	/**
+	 * @return Number of standby containers to keep started ahead of demand.
+	 */
+	public int getMinIdle() {
+		return minIdle;
+	}
+
+	@DataBoundSetter
+	public void setMinIdle(int minIdle) {
+		this.minIdle = minIdle;
+	}
+
+	/**
+	 * @return Minutes a standby container may wait unused before it is replaced. Zero keeps it indefinitely.
+	 */
+	public int getIdleTTLMinutes() {
+		return idleTTLMinutes == null ? IDLE_TTL_MINUTES_DEFAULT : idleTTLMinutes;
+	}
+
+	@DataBoundSetter
+	public void setIdleTTLMinutes(int idleTTLMinutes) {
+		this.idleTTLMinutes = idleTTLMinutes;
+	}
+
+	/**
+	 * @return Builds a container serves before it is terminated. Zero for no limit.
+	 */
+	public int getMaxBuilds() {
+		return maxBuilds == null ? MAX_BUILDS_DEFAULT : maxBuilds;
+	}
+
+	@DataBoundSetter
+	public void setMaxBuilds(int maxBuilds) {
+		this.maxBuilds = maxBuilds;
+	}
+
+	/**
+	 * @return Minutes a reused container may sit idle between builds before it is terminated.
+	 */
+	public int getReuseIdleMinutes() {
+		return reuseIdleMinutes == null ? REUSE_IDLE_MINUTES_DEFAULT : reuseIdleMinutes;
+	}
+
+	@DataBoundSetter
+	public void setReuseIdleMinutes(int reuseIdleMinutes) {
+		this.reuseIdleMinutes = reuseIdleMinutes;
+	}
+
+	/**
+	 * @return Shell command run in a reused container between builds, or null for none.
+	 */
+	public String getCleanupCommand() {
+		return cleanupCommand;
+	}
+
+	@DataBoundSetter
+	public void setCleanupCommand(String cleanupCommand) {
+		this.cleanupCommand = cleanupCommand;
+	}
+
+	/**
+	 * @return True if containers serve more than one build.
+	 */
+	public boolean isContainerReused() {
+		return getMaxBuilds() != 1;
+	}
+
+	/**
+	 * @return Retention strategy for a new container's slave.
+	 */
+	RetentionStrategy<?> createRetentionStrategy() {
+		if (!isContainerReused()) {
+			return new OnceRetentionStrategy(0);
+		}
+		return new DockerRetentionStrategy(Math.max(0, getMaxBuilds()), Math.max(0, getReuseIdleMinutes()), cleanupCommand);
+	}
+
+	/**
+	 * @return True if new containers run the slave as their main process instead of having it exec'd once they are up.
+	 */
+	public boolean isSlaveStartedWithContainer() {
+		return slaveStartedWithContainer;
+	}
+
+	@DataBoundSetter
+	public void setSlaveStartedWithContainer(boolean slaveStartedWithContainer) {
+		this.slaveStartedWithContainer = slaveStartedWithContainer;
+	}
+
+	/**
+	 * @return True if slaves run in stdio mode with their channel over the Docker exec stream instead of connecting by JNLP.
+	 */
+	public boolean isExecChannel() {
+		return execChannel;
+	}
+
+	@DataBoundSetter
+	public void setExecChannel(boolean execChannel) {
+		this.execChannel = execChannel;
+	}
+
+	/**
+	 * @return Cache volume lines, each <code>name:/container/path</code> with an optional <code>:shared</code> or <code>:exclusive</code>.
+	 */
+	public String getCacheVolumes() {
+		return cacheVolumes;
+	}
+
+	@DataBoundSetter
+	public void setCacheVolumes(String cacheVolumes) {
+		this.cacheVolumes = cacheVolumes;
+		this.cacheVolumeDefinitions = null;
+	}
+
+	/**
+	 * @return Size limit of each cache's volumes on a Docker host. Zero for no limit.
+	 */
+	public long getCacheVolumeMaxSizeMB() {
+		return cacheVolumeMaxSizeMB;
+	}
+
+	@DataBoundSetter
+	public void setCacheVolumeMaxSizeMB(long cacheVolumeMaxSizeMB) {
+		this.cacheVolumeMaxSizeMB = cacheVolumeMaxSizeMB;
+	}
+
+	/**
+	 * @return Days a cache volume may go unused before it is evicted. Zero to keep them.
+	 */
+	public int getCacheVolumeIdleDays() {
+		return cacheVolumeIdleDays == null ? CACHE_VOLUME_IDLE_DAYS_DEFAULT : cacheVolumeIdleDays;
+	}
+
+	@DataBoundSetter
+	public void setCacheVolumeIdleDays(int cacheVolumeIdleDays) {
+		this.cacheVolumeIdleDays = cacheVolumeIdleDays;
+	}
+
+	/**
+	 * @return The caches of this image config. Empty if there are none or they do not parse.
+	 */
+	List<CacheVolumes.Definition> getCacheVolumeDefinitions() {
+		List<CacheVolumes.Definition> definitions = cacheVolumeDefinitions;
+		if (definitions == null) {
+			try {
+				definitions = CacheVolumes.Definition.parse(cacheVolumes);
+			} catch (IllegalArgumentException e) {
+				LOGGER.warning("Ignoring the cache volumes of image config '" + name + "'. " + e.getMessage());
+				definitions = Collections.emptyList();
+			}
+			cacheVolumeDefinitions = definitions;
+		}
+		return definitions;
+	}
+
+	/**
+	 * @return The named cache, or null if this image config has no such cache.
+	 */
+	CacheVolumes.Definition getCacheVolumeDefinition(String cacheName) {
+		for (CacheVolumes.Definition definition : getCacheVolumeDefinitions()) {
+			if (definition.getName().equals(cacheName)) {
+				return definition;
+			}
+		}
+		return null;
+	}
+
 	public String getVolumes() {
 		return volumes;
 	}
@@ -316,6 +532,57 @@ public class DockerImage implements Describable<DockerImage> {
 			return FormValidation.ok();
 		}
 
+		public FormValidation doCheckMinIdle(@QueryParameter int minIdle) {
+			if (minIdle < 0) {
+				return FormValidation.error("Must not be negative.");
+			}
+			return FormValidation.ok();
+		}
+
+		public FormValidation doCheckIdleTTLMinutes(@QueryParameter int idleTTLMinutes) {
+			if (idleTTLMinutes < 0) {
+				return FormValidation.error("Must not be negative.");
+			}
+			return FormValidation.ok();
+		}
+
+		public FormValidation doCheckCacheVolumes(@QueryParameter String cacheVolumes) {
+			try {
+				CacheVolumes.Definition.parse(cacheVolumes);
+			} catch (IllegalArgumentException e) {
+				return FormValidation.error(e.getMessage());
+			}
+			return FormValidation.ok();
+		}
+
+		public FormValidation doCheckCacheVolumeMaxSizeMB(@QueryParameter long cacheVolumeMaxSizeMB) {
+			if (cacheVolumeMaxSizeMB < 0) {
+				return FormValidation.error("Must not be negative.");
+			}
+			return FormValidation.ok();
+		}
+
+		public FormValidation doCheckCacheVolumeIdleDays(@QueryParameter int cacheVolumeIdleDays) {
+			if (cacheVolumeIdleDays < 0) {
+				return FormValidation.error("Must not be negative.");
+			}
+			return FormValidation.ok();
+		}
+
+		public FormValidation doCheckMaxBuilds(@QueryParameter int maxBuilds) {
+			if (maxBuilds < 0) {
+				return FormValidation.error("Must not be negative.");
+			}
+			return FormValidation.ok();
+		}
+
+		public FormValidation doCheckReuseIdleMinutes(@QueryParameter int reuseIdleMinutes) {
+			if (reuseIdleMinutes < 0) {
+				return FormValidation.error("Must not be negative.");
+			}
+			return FormValidation.ok();
+		}
+
 		public FormValidation doCheckMemoryLimitMB(@QueryParameter boolean memoryLimited, @QueryParameter long memoryLimitMB) {
 			if (memoryLimited) {
 				if (memoryLimitMB < 1l) {
@@ -4,6 +4,8 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
+import jenkins.model.Jenkins;
+
 public class DockerLabelsBuilder {
 	
 	private Map<String, String> labelsMap = new HashMap<String, String>();
@@ -11,11 +13,27 @@ public class DockerLabelsBuilder {
 	public static final String PLUGIN_NAME = "jenkins.plugin_name";
 	public static final String PLUGIN_NAME_VAL = "docker_ephemeral_cloud";
 	public static final String CLOUD_NAME = "jenkins.cloud_name";
+	public static final String MASTER_ID = "jenkins.master_id";
 	public static final String IMAGE_NAME = "jenkins.image_name";
 	public static final String LABEL_STRING = "jenkins.label_string";
+	public static final String STANDBY = "jenkins.standby";
+	public static final String CACHE_NAME = "jenkins.cache_name";
 
 	public DockerLabelsBuilder() {
 		labelsMap.put(PLUGIN_NAME, PLUGIN_NAME_VAL);
+		final String masterId = masterId();
+		if (masterId != null) {
+			labelsMap.put(MASTER_ID, masterId);
+		}
+	}
+	
+	/**
+	 * @return Identifies this Jenkins master, so masters sharing a Docker host and cloud name can tell their
+	 *         containers apart. Null if Jenkins is not running.
+	 */
+	public static String masterId() {
+		final Jenkins jenkins = Jenkins.getInstance();
+		return jenkins == null ? null : jenkins.getLegacyInstanceId();
 	}
 	
 	public Map<String, String> build() {
@@ -37,6 +55,26 @@ public class DockerLabelsBuilder {
 		return this;
 	}
 	
+	/**
+	 * Names the cache kept in a cache volume.
+	 */
+	public DockerLabelsBuilder cacheName(String cacheName) {
+		labelsMap.put(CACHE_NAME, cacheName);
+		return this;
+	}
+	
+	/**
+	 * Marks containers started ahead of demand for the warm pool.
+	 */
+	public DockerLabelsBuilder standby(boolean standby) {
+		if (standby) {
+			labelsMap.put(STANDBY, Boolean.TRUE.toString());
+		} else {
+			labelsMap.remove(STANDBY);
+		}
+		return this;
+	}
+	
 	public static String sanitize(String value) {
 		// Docker library is escaping spaces and they end up as + in the filter.
 		return value.replace(' ', '_');
@@ -1,9 +1,17 @@
 package com.github.kmbulebu.jenkins.plugins.dockercloud;
 
 import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
@@ -11,19 +19,25 @@ import org.kohsuke.stapler.DataBoundSetter;
 import com.spotify.docker.client.DockerClient;
 import com.spotify.docker.client.DockerClient.ExecCreateParam;
 import com.spotify.docker.client.DockerClient.ExecStartParameter;
+import com.spotify.docker.client.DockerClient.LogsParam;
 import com.spotify.docker.client.LogStream;
 import com.spotify.docker.client.exceptions.DockerCertificateException;
 import com.spotify.docker.client.exceptions.DockerException;
 import com.spotify.docker.client.messages.ExecCreation;
 
 import hudson.Extension;
+import hudson.Util;
 import hudson.model.Descriptor;
 import hudson.model.TaskListener;
+import hudson.remoting.Channel;
 import hudson.slaves.ComputerLauncher;
 import hudson.slaves.DelegatingComputerLauncher;
 import hudson.slaves.JNLPLauncher;
 import hudson.slaves.SlaveComputer;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
 import jenkins.model.JenkinsLocationConfiguration;
+import jenkins.slaves.JnlpSlaveAgentProtocol;
 
 public class DockerLauncher extends DelegatingComputerLauncher {
 	
@@ -35,7 +49,35 @@ public class DockerLauncher extends DelegatingComputerLauncher {
 	
 	private static final String SLAVE_JAR_DISABLE_SSL_VERIFICATION = " -disableSslVerification";
 	
+	private static final long CONTAINER_CHECK_INTERVAL_MS = 500;
+	
+	private static final int FAILED_LAUNCH_LOG_LINES = 100;
+	
+	/**
+	 * How often a container started with its slave polls for the slave's node. Matches the sleep in its command.
+	 */
+	private static final long NODE_POLL_INTERVAL_MS = 200;
+	
+	/**
+	 * Where an exec'd slave's output goes in its container.
+	 */
+	private static final String SLAVE_LOG_PATH = "/tmp/jenkins-slave.log";
+	
+	private static final String MAX_SLAVE_LOG_BYTES_PROPERTY = DockerLauncher.class.getName() + ".maxSlaveLogBytes";
+	
+	private static final long MAX_SLAVE_LOG_BYTES_DEFAULT = 10 * 1024 * 1024;
+	
 	private String execUser;
+	
+	/**
+	 * True if the slave was baked into the container's command when it was created, so there is nothing to exec.
+	 */
+	private boolean startedWithContainer;
+	
+	/**
+	 * True if the slave runs in stdio mode with its channel over the Docker exec stream, instead of connecting by JNLP.
+	 */
+	private boolean execChannel;
 
 	@DataBoundConstructor
 	public DockerLauncher(String execUser) {
@@ -51,21 +93,51 @@ public class DockerLauncher extends DelegatingComputerLauncher {
 	public void setExecUser(String execUser) {
 		this.execUser = execUser;
 	}
+	
+	public boolean isStartedWithContainer() {
+		return startedWithContainer;
+	}
+	
+	@DataBoundSetter
+	public void setStartedWithContainer(boolean startedWithContainer) {
+		this.startedWithContainer = startedWithContainer;
+	}
+	
+	public boolean isExecChannel() {
+		return execChannel;
+	}
+	
+	@DataBoundSetter
+	public void setExecChannel(boolean execChannel) {
+		this.execChannel = execChannel;
+	}
 
 	@Override
 	public void launch(final SlaveComputer computer, final TaskListener listener) throws IOException, InterruptedException {
 		final DockerSlave slaveNode = (DockerSlave) computer.getNode();
+		final LaunchMonitor launchMonitor = ((DockerComputer) computer).startLaunch();
+		final ProvisioningMetrics metrics = ProvisioningMetrics.forImage(slaveNode.getDockerCloud(), slaveNode.getImageName());
+		
+		if (execChannel) {
+			launchOverExec(computer, slaveNode, listener, metrics);
+			return;
+		}
 		
 		// Start the JNLP listener.
 		super.launch(computer, listener);
 		
+		if (startedWithContainer) {
+			awaitSlaveStartedWithContainer(computer, slaveNode, listener, launchMonitor, metrics);
+			return;
+		}
+		
 		DockerClient dockerClient = null;
-		Thread streamThread = null;
+		ExecOutputReader outputReader = null;
 		try {
-			dockerClient = slaveNode.getDockerCloud().buildDockerClient();
+			dockerClient = slaveNode.getDockerClient();
 			final boolean disableSslVerification = System.getProperties().containsKey("docker.launcher.slave.disablesslverification");
 			final String slaveOptions = "-jnlpUrl " + getSlaveJnlpUrl(computer) + " -secret " + getSlaveSecret(computer) + (disableSslVerification ? SLAVE_JAR_DISABLE_SSL_VERIFICATION : "");
-			final String[] command = new String[] {"sh", "-c", "curl -o slave.jar " + getSlaveJarUrl() + " && java -jar slave.jar " + slaveOptions}; //| tee /jenkins-out"};
+			final String[] command = new String[] {"sh", "-c", getSlaveCommand(slaveOptions)}; //| tee /jenkins-out"};
 			
 			final ExecCreateParam[] params;
 			
@@ -75,51 +147,202 @@ public class DockerLauncher extends DelegatingComputerLauncher {
 				params = new ExecCreateParam[] {ExecCreateParam.user(execUser), ExecCreateParam.attachStderr(true), ExecCreateParam.attachStdout(true), ExecCreateParam.tty(true)};
 			}
 			LOGGER.fine("Creating exec for container " + slaveNode.getDockerId() + ". Command: `" + Arrays.toString(command) + "`");
+			final long execCreateNanos = System.nanoTime();
 			final ExecCreation execCreation = dockerClient.execCreate(slaveNode.getDockerId(), command, params);
+			metrics.record(ProvisioningMetrics.Phase.EXEC_CREATE, execCreateNanos);
 			final String execId = execCreation.id();
 			listener.getLogger().println("Created Docker exec with id " + execId);
 			LOGGER.info("Starting exec for container " + slaveNode.getDockerId() + ".");
-			final DockerClient finalDockerClient = dockerClient;
-			streamThread = new Thread(){
-				public void run() {
-					try (LogStream stream = finalDockerClient.execStart(execId, ExecStartParameter.TTY)) {
-						final String output = stream.readFully();
-						LOGGER.log(Level.FINE, "Exec start for exec with id " + execId + " output:\n" + output);
-						listener.getLogger().println(output);
-					} catch (DockerException | InterruptedException e) {
-						LOGGER.log(Level.FINE, "Error while streaming output from exec start." + e.getMessage(), e);
-					}
-				};
-			};
-			streamThread.start();
+			final long execStartNanos = System.nanoTime();
+			outputReader = new ExecOutputReader(dockerClient, execId, listener, launchMonitor, metrics);
+			outputReader.start();
 			
 			LOGGER.fine("Completed exec start for container " + slaveNode.getDockerId() + ".");
-			LOGGER.fine("Beginning sleep while waiting for slave in container " + slaveNode.getDockerId() + ".");
-			// Give time for slaves to connect. If it's not online and we exit this method, Jenkins will kill it soon.
-			Thread.sleep(Long.getLong(WAIT_FOR_SLAVE_PROPERTY, WAIT_FOR_SLAVE_PROPERTY_DEFAULT));
-			LOGGER.fine("Finished sleeping while waiting for slave in container " + slaveNode.getDockerId() + ".");
+			LOGGER.fine("Waiting for slave in container " + slaveNode.getDockerId() + ".");
+			// Return as soon as the slave is online or has failed. If it's not online and we exit this method, Jenkins will kill it soon.
+			if (!launchMonitor.await(Long.getLong(WAIT_FOR_SLAVE_PROPERTY, WAIT_FOR_SLAVE_PROPERTY_DEFAULT))) {
+				LOGGER.warning("Timed out waiting for slave in container " + slaveNode.getDockerId() + ".");
+				listener.getLogger().println("Timed out waiting for slave to connect.");
+				metrics.failed(ProvisioningMetrics.FailureCause.CONNECT_TIMEOUT);
+				imageBreaker(slaveNode).failed("Timed out waiting for slave to connect.");
+			} else if (computer.isOnline()) {
+				LOGGER.fine("Slave in container " + slaveNode.getDockerId() + " is online.");
+				metrics.record(ProvisioningMetrics.Phase.AGENT_CONNECT, execStartNanos);
+				imageBreaker(slaveNode).succeeded();
+			} else if (launchMonitor.getFailure() != null) {
+				metrics.failed(ProvisioningMetrics.FailureCause.LAUNCH);
+				imageBreaker(slaveNode).failed("Slave failed to start. " + launchMonitor.getFailure());
+				LOGGER.warning("Slave in container " + slaveNode.getDockerId() + " failed to start. " + launchMonitor.getFailure());
+				listener.getLogger().println("Slave failed to start. " + launchMonitor.getFailure());
+			}
 		} catch (DockerCertificateException e) {
+			metrics.failed(ProvisioningMetrics.FailureCause.EXEC);
+			CircuitBreaker.failed(slaveNode.getEndpoint(), imageBreaker(slaveNode), e);
 			LOGGER.log(Level.WARNING, "Could not launcher Docker exec on container. There's a problem with the TLS certificates. " + e.getMessage(), e);
 		} catch (DockerException e) {
+			metrics.failed(ProvisioningMetrics.FailureCause.EXEC);
+			CircuitBreaker.failed(slaveNode.getEndpoint(), imageBreaker(slaveNode), e);
 			LOGGER.log(Level.WARNING, "Could not launcher Docker exec on container " + slaveNode.getDockerId() + ". " + e.getMessage(), e);
 		} catch (InterruptedException e) {
 			LOGGER.fine("Received interrupt. Exiting launcher for container " + slaveNode.getDockerId() + ".");
 			throw e;
 		}finally {
-			if (streamThread != null) {
-				streamThread.interrupt();
+			if (outputReader != null) {
+				outputReader.stop();
+			}
+		}
+		
+	}
+
+	/*
+	 * Run the slave in stdio mode and build its channel over the exec's own stdin and stdout. The slave is online as
+	 * soon as the channel handshake completes, and no port on the master is involved.
+	 */
+	private void launchOverExec(SlaveComputer computer, DockerSlave slaveNode, TaskListener listener, ProvisioningMetrics metrics) throws IOException, InterruptedException {
+		final long launchNanos = System.nanoTime();
+		DockerExecStream execStream = null;
+		try {
+			final DockerClient dockerClient = slaveNode.getDockerClient();
+			final String[] command = new String[] {"sh", "-c", getStdioSlaveCommand()};
+			final ExecCreateParam[] params;
+			if (execUser == null) {
+				params = new ExecCreateParam[] {ExecCreateParam.attachStdin(), ExecCreateParam.attachStdout(), ExecCreateParam.attachStderr()};
+			} else {
+				params = new ExecCreateParam[] {ExecCreateParam.user(execUser), ExecCreateParam.attachStdin(), ExecCreateParam.attachStdout(), ExecCreateParam.attachStderr()};
+			}
+			LOGGER.fine("Creating exec for container " + slaveNode.getDockerId() + ". Command: `" + Arrays.toString(command) + "`");
+			final long execCreateNanos = System.nanoTime();
+			final ExecCreation execCreation = dockerClient.execCreate(slaveNode.getDockerId(), command, params);
+			metrics.record(ProvisioningMetrics.Phase.EXEC_CREATE, execCreateNanos);
+			listener.getLogger().println("Created Docker exec with id " + execCreation.id() + ". Connecting over its stdio.");
+			
+			final long execStartNanos = System.nanoTime();
+			final long timeoutMillis = Long.getLong(WAIT_FOR_SLAVE_PROPERTY, WAIT_FOR_SLAVE_PROPERTY_DEFAULT);
+			execStream = DockerExecStream.start(slaveNode.getEndpoint(), execCreation.id(), listener.getLogger(), timeoutMillis);
+			metrics.record(ProvisioningMetrics.Phase.EXEC_START, execStartNanos);
+			
+			final DockerExecStream stream = execStream;
+			// The handshake blocks until the slave answers. Abort the stream if it never does.
+			final Future<?> deadline = stream.abortAfter(timeoutMillis);
+			try {
+				computer.setChannel(stream.getInputStream(), stream.getOutputStream(), listener, new Channel.Listener() {
+					@Override
+					public void onClosed(Channel channel, IOException cause) {
+						stream.close();
+					}
+				});
+			} finally {
+				deadline.cancel(false);
 			}
-			if (dockerClient != null) {
-				dockerClient.close();
+			metrics.record(ProvisioningMetrics.Phase.AGENT_CONNECT, launchNanos);
+			imageBreaker(slaveNode).succeeded();
+			LOGGER.fine("Slave in container " + slaveNode.getDockerId() + " is online.");
+		} catch (DockerCertificateException e) {
+			metrics.failed(ProvisioningMetrics.FailureCause.EXEC);
+			CircuitBreaker.failed(slaveNode.getEndpoint(), imageBreaker(slaveNode), e);
+			LOGGER.log(Level.WARNING, "Could not launch Docker exec on container. There's a problem with the TLS certificates. " + e.getMessage(), e);
+		} catch (DockerException e) {
+			metrics.failed(ProvisioningMetrics.FailureCause.EXEC);
+			CircuitBreaker.failed(slaveNode.getEndpoint(), imageBreaker(slaveNode), e);
+			LOGGER.log(Level.WARNING, "Could not launch Docker exec on container " + slaveNode.getDockerId() + ". " + e.getMessage(), e);
+		} catch (IOException e) {
+			metrics.failed(ProvisioningMetrics.FailureCause.LAUNCH);
+			imageBreaker(slaveNode).failed("Slave failed to start. " + e.getMessage());
+			LOGGER.log(Level.WARNING, "Slave in container " + slaveNode.getDockerId() + " failed to start. " + e.getMessage(), e);
+			listener.getLogger().println("Slave failed to start. " + e.getMessage());
+			if (execStream != null) {
+				execStream.close();
+			}
+		}
+	}
+	
+	/*
+	 * Wait for a slave that the container runs as its main process. Nothing reads its output, so the container is
+	 * watched through the inventory and its log is only fetched if the slave fails to connect.
+	 */
+	private void awaitSlaveStartedWithContainer(SlaveComputer computer, DockerSlave slaveNode, TaskListener listener, LaunchMonitor launchMonitor, ProvisioningMetrics metrics) throws InterruptedException {
+		final long startNanos = System.nanoTime();
+		final long deadline = System.currentTimeMillis() + Long.getLong(WAIT_FOR_SLAVE_PROPERTY, WAIT_FOR_SLAVE_PROPERTY_DEFAULT);
+		final ContainerInventory inventory = ContainerInventory.forEndpoint(slaveNode.getDockerCloud(), slaveNode.getEndpoint());
+		listener.getLogger().println("Slave was started with container " + slaveNode.getDockerId() + ". Waiting for it to connect.");
+		
+		// The slave may have connected before this launch began, so check before waiting.
+		while (!computer.isOnline() && !launchMonitor.await(CONTAINER_CHECK_INTERVAL_MS)) {
+			if (!inventory.isRunning(slaveNode.getDockerId())) {
+				launchMonitor.failed("Container is no longer running.");
+			} else if (System.currentTimeMillis() > deadline) {
+				break;
 			}
 		}
 		
+		if (computer.isOnline()) {
+			LOGGER.fine("Slave in container " + slaveNode.getDockerId() + " is online.");
+			metrics.record(ProvisioningMetrics.Phase.AGENT_CONNECT, startNanos);
+			imageBreaker(slaveNode).succeeded();
+			return;
+		}
+		if (launchMonitor.getFailure() != null) {
+			metrics.failed(ProvisioningMetrics.FailureCause.LAUNCH);
+			imageBreaker(slaveNode).failed("Slave failed to start. " + launchMonitor.getFailure());
+			LOGGER.warning("Slave in container " + slaveNode.getDockerId() + " failed to start. " + launchMonitor.getFailure());
+			listener.getLogger().println("Slave failed to start. " + launchMonitor.getFailure());
+		} else {
+			metrics.failed(ProvisioningMetrics.FailureCause.CONNECT_TIMEOUT);
+			imageBreaker(slaveNode).failed("Timed out waiting for slave to connect.");
+			LOGGER.warning("Timed out waiting for slave in container " + slaveNode.getDockerId() + ".");
+			listener.getLogger().println("Timed out waiting for slave to connect.");
+		}
+		copyContainerLog(slaveNode, listener);
+	}
+	
+	private static CircuitBreaker imageBreaker(DockerSlave slaveNode) {
+		return CircuitBreaker.forImage(slaveNode.getDockerCloud(), slaveNode.getImageName());
+	}
+	
+	/*
+	 * Copy the end of the container's log to the launch log.
+	 */
+	private static void copyContainerLog(DockerSlave slaveNode, TaskListener listener) throws InterruptedException {
+		try (LogStream stream = slaveNode.getDockerClient().logs(slaveNode.getDockerId(), LogsParam.stdout(), LogsParam.stderr(), LogsParam.tail(FAILED_LAUNCH_LOG_LINES))) {
+			listener.getLogger().println("Last " + FAILED_LAUNCH_LOG_LINES + " lines of the container's log:");
+			listener.getLogger().println(stream.readFully());
+		} catch (DockerException | DockerCertificateException e) {
+			LOGGER.log(Level.FINE, "Could not read the log of container " + slaveNode.getDockerId() + ". " + e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * Command for a container that runs the slave as its main process, so it starts without an exec.
+	 * 
+	 * The slave jar is fetched while the slave node is being added, then the command waits until the master serves the
+	 * node's JNLP file. Otherwise the slave would find no such node and wait 10 seconds before retrying. The wait
+	 * gives up after the wait for slave timeout, and the container exits so the launcher sees it fail.
+	 */
+	static String[] getContainerCommand() {
+		final boolean disableSslVerification = System.getProperties().containsKey("docker.launcher.slave.disablesslverification");
+		final String slaveOptions = "-jnlpUrl \"$JENKINS_JNLP_URL\" -secret \"$JENKINS_SECRET\"" + (disableSslVerification ? SLAVE_JAR_DISABLE_SSL_VERIFICATION : "");
+		final String jar = "if [ -f " + AgentJarCache.READY_MARKER_PATH + " ]; then JAR=" + AgentJarCache.JAR_PATH + "; else curl -s -o slave.jar " + getSlaveJarUrl() + " && JAR=slave.jar || exit 1; fi";
+		final long tries = Math.max(1, Long.getLong(WAIT_FOR_SLAVE_PROPERTY, WAIT_FOR_SLAVE_PROPERTY_DEFAULT) / NODE_POLL_INTERVAL_MS);
+		final String waitForNode = "TRIES=0; until curl -s -f --max-time 5 -o /dev/null \"$JENKINS_JNLP_URL\"; do "
+				+ "TRIES=$((TRIES+1)); if [ $TRIES -ge " + tries + " ]; then echo \"Gave up waiting for $JENKINS_JNLP_URL\" >&2; exit 1; fi; "
+				+ "sleep 0.2; done";
+		return new String[] {"sh", "-c", jar + "; " + waitForNode + "; exec java -jar \"$JAR\" " + slaveOptions};
+	}
+	
+	/**
+	 * Environment the {@link #getContainerCommand()} reads the slave's JNLP URL and secret from.
+	 * 
+	 * @param slaveName Name the slave node will be added under.
+	 */
+	static String[] getContainerEnv(String slaveName) {
+		final String jnlpUrl = getJenkinsBaseUrl() + "computer/" + Util.rawEncode(slaveName) + "/slave-agent.jnlp";
+		return new String[] {"JENKINS_JNLP_URL=" + jnlpUrl, "JENKINS_SECRET=" + JnlpSlaveAgentProtocol.SLAVE_SECRET.mac(slaveName)};
 	}
 
 	/*
 	 *  Get a Jenkins Base URL ending with /
 	 */
-	private String getJenkinsBaseUrl() {
+	private static String getJenkinsBaseUrl() {
 		String url = JenkinsLocationConfiguration.get().getUrl();
 		if (url.endsWith("/")) {
 			return url;
@@ -131,10 +354,40 @@ public class DockerLauncher extends DelegatingComputerLauncher {
 	/*
 	 * Get the slave jar URL.
 	 */
-	private String getSlaveJarUrl() {
+	private static String getSlaveJarUrl() {
 		return getJenkinsBaseUrl() + "jnlpJars/slave.jar";
 	}
 	
+	/*
+	 * Run the slave jar cached on the Docker host if it is mounted and complete, otherwise download it.
+	 * 
+	 * The slave writes to a log file in the container rather than to the exec's terminal, and the exec only follows
+	 * that file. Once the launch is over the exec stream is closed. From then on only the tail blocks on the
+	 * terminal, never the slave. The exec still ends with the slave's exit code. A reused container runs its slave
+	 * for many builds, so the log is rotated to a single previous file once it grows past the size limit.
+	 */
+	private String getSlaveCommand(String slaveOptions) {
+		final String download = "curl -o slave.jar " + getSlaveJarUrl() + " && java -jar slave.jar " + slaveOptions;
+		final String slave = "if [ -f " + AgentJarCache.READY_MARKER_PATH + " ]; then java -jar " + AgentJarCache.JAR_PATH + " " + slaveOptions + "; else " + download + "; fi";
+		final long maxLogBytes = Long.getLong(MAX_SLAVE_LOG_BYTES_PROPERTY, MAX_SLAVE_LOG_BYTES_DEFAULT);
+		// Appended to, so truncating the file in place does not leave the slave writing at its old offset.
+		return ": > " + SLAVE_LOG_PATH + "; (" + slave + ") >> " + SLAVE_LOG_PATH + " 2>&1 & SLAVE=$!; "
+				+ "tail -n +1 -f " + SLAVE_LOG_PATH + " & TAIL=$!; "
+				+ "while kill -0 $SLAVE 2>/dev/null; do sleep 10; "
+				+ "if [ $(wc -c < " + SLAVE_LOG_PATH + ") -gt " + maxLogBytes + " ]; then cp " + SLAVE_LOG_PATH + " " + SLAVE_LOG_PATH + ".1; : > " + SLAVE_LOG_PATH + "; fi; "
+				+ "done & ROTATE=$!; "
+				// Give the tail a moment to copy the last lines before it is stopped.
+				+ "wait $SLAVE; CODE=$?; sleep 1; kill $TAIL $ROTATE 2>/dev/null; exit $CODE";
+	}
+	
+	/*
+	 * Run the slave jar in stdio mode. Nothing but the slave may write to stdout, as it carries the channel.
+	 */
+	private static String getStdioSlaveCommand() {
+		final String download = "curl -s -o slave.jar " + getSlaveJarUrl() + " 1>&2 && exec java -jar slave.jar";
+		return "if [ -f " + AgentJarCache.READY_MARKER_PATH + " ]; then exec java -jar " + AgentJarCache.JAR_PATH + "; else " + download + "; fi";
+	}
+	
 	/*
 	 * Get the JNLP URL for the slave.
 	 */
@@ -148,6 +401,172 @@ public class DockerLauncher extends DelegatingComputerLauncher {
 		
 	}
 	
+	/*
+	 * Copies the exec output to the launch log in fixed size chunks and reports a failed launch as soon as it is seen.
+	 * 
+	 * Nothing is accumulated. Each chunk is copied through one small buffer, and only the end of the output is kept
+	 * for the debug log. The launch log stops growing once the retained byte cap is reached. Readers run on a shared
+	 * pool and only for the length of the launch. The launcher stops the reader, which closes the stream, once the
+	 * slave has connected or failed. The exec only follows the slave's log file, so nothing has to drain it after
+	 * that. Later output stays in the file in the container.
+	 */
+	private static final class ExecOutputReader implements Runnable {
+		
+		/*
+		 * Output from curl, the shell or the JVM that means the slave is not going to connect.
+		 */
+		private static final String[] FAILURE_MARKERS = new String[] {"curl: (", "command not found",
+				"Unable to access jarfile", "Could not find or load main class", "Exception in thread \"main\""};
+		
+		/*
+		 * A missing command as reported by dash or busybox, e.g. "sh: 1: java: not found". Anchored to the start of a
+		 * line, as "not found" alone turns up in ordinary output. Bash is covered by "command not found".
+		 */
+		private static final Pattern SHELL_NOT_FOUND = Pattern.compile("\n(?:/bin/)?sh: (?:\\d+: )?[^\\s:]+: not found");
+		
+		private static final int MARKER_OVERLAP = 64;
+		
+		private static final int CHUNK_SIZE = 8192;
+		
+		private static final int DEBUG_TAIL_CHARS = 4096;
+		
+		private static final String MAX_LOG_BYTES_PROPERTY = DockerLauncher.class.getName() + ".maxLaunchLogBytes";
+		
+		private static final long MAX_LOG_BYTES_DEFAULT = 1024 * 1024;
+		
+		private static final ExecutorService READERS = Executors.newCachedThreadPool(new NamingThreadFactory(new DaemonThreadFactory(), "Docker exec output"));
+		
+		private final DockerClient dockerClient;
+		private final String execId;
+		private final TaskListener listener;
+		private final LaunchMonitor launchMonitor;
+		private final ProvisioningMetrics metrics;
+		
+		private volatile LogStream stream;
+		
+		private volatile boolean stopped;
+		
+		private ExecOutputReader(DockerClient dockerClient, String execId, TaskListener listener, LaunchMonitor launchMonitor, ProvisioningMetrics metrics) {
+			this.dockerClient = dockerClient;
+			this.execId = execId;
+			this.listener = listener;
+			this.launchMonitor = launchMonitor;
+			this.metrics = metrics;
+		}
+		
+		private void start() {
+			READERS.execute(this);
+		}
+		
+		/**
+		 * Stop reading and close the stream. The exec carries on.
+		 */
+		private void stop() {
+			stopped = true;
+			final LogStream current = stream;
+			if (current != null) {
+				current.close();
+			}
+		}
+		
+		@Override
+		public void run() {
+			final long maxLogBytes = Long.getLong(MAX_LOG_BYTES_PROPERTY, MAX_LOG_BYTES_DEFAULT);
+			final boolean debug = LOGGER.isLoggable(Level.FINE);
+			final byte[] chunk = new byte[CHUNK_SIZE];
+			final PrintStream logger = listener.getLogger();
+			long logged = 0;
+			long total = 0;
+			// Starts as a line break so a shell error on the first line is anchored too.
+			String tail = "\n";
+			final StringBuilder debugTail = debug ? new StringBuilder() : null;
+			final long startNanos = System.nanoTime();
+			try (LogStream stream = dockerClient.execStart(execId, ExecStartParameter.TTY)) {
+				metrics.record(ProvisioningMetrics.Phase.EXEC_START, startNanos);
+				this.stream = stream;
+				if (stopped) {
+					return;
+				}
+				while (stream.hasNext()) {
+					final ByteBuffer content = stream.next().content();
+					while (content.hasRemaining()) {
+						final int length = Math.min(content.remaining(), chunk.length);
+						content.get(chunk, 0, length);
+						total += length;
+						
+						if (logged < maxLogBytes) {
+							final int kept = (int) Math.min(length, maxLogBytes - logged);
+							logger.write(chunk, 0, kept);
+							logged += kept;
+							if (logged >= maxLogBytes) {
+								logger.println();
+								logger.println("[Launch log truncated at " + maxLogBytes + " bytes. Further output is discarded.]");
+							}
+						}
+						
+						// Only decode while something still needs the text.
+						if (!launchMonitor.isDone() || debug) {
+							final String text = new String(chunk, 0, length, StandardCharsets.UTF_8);
+							if (!launchMonitor.isDone()) {
+								// Keep the end of the previous chunk so a marker split across chunks is still found.
+								final String window = tail + text;
+								for (String marker : FAILURE_MARKERS) {
+									if (window.contains(marker)) {
+										launchMonitor.failed("Output contained '" + marker + "'.");
+									}
+								}
+								final Matcher notFound = SHELL_NOT_FOUND.matcher(window);
+								if (notFound.find()) {
+									launchMonitor.failed("Output contained '" + notFound.group().trim() + "'.");
+								}
+								tail = window.substring(Math.max(0, window.length() - MARKER_OVERLAP));
+							}
+							if (debug) {
+								debugTail.append(text);
+								if (debugTail.length() > DEBUG_TAIL_CHARS * 2) {
+									debugTail.delete(0, debugTail.length() - DEBUG_TAIL_CHARS);
+								}
+							}
+						}
+					}
+				}
+				if (debug) {
+					LOGGER.log(Level.FINE, "Exec with id " + execId + " ended after " + total + " bytes of output. Last output:\n"
+							+ debugTail.substring(Math.max(0, debugTail.length() - DEBUG_TAIL_CHARS)));
+				}
+				if (stopped) {
+					return;
+				}
+				// The stream only ends when the process exits.
+				final Integer exitCode = dockerClient.execInspect(execId).exitCode();
+				launchMonitor.failed("Slave process exited with code " + exitCode + ".");
+			} catch (DockerException e) {
+				LOGGER.log(Level.FINE, "Error while streaming output from exec start." + e.getMessage(), e);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				if (!stopped) {
+					// Nothing is watching the slave any more, so do not leave the launch waiting for its timeout.
+					launchMonitor.failed("Interrupted while reading the slave's output.");
+				}
+			} catch (RuntimeException e) {
+				if (stopped) {
+					// Closed by the launcher once the launch was over.
+					return;
+				}
+				// The read times out while the slave is quiet. Only a launch failure if the process has gone.
+				LOGGER.log(Level.FINE, "Stopped streaming output from exec start. " + e.getMessage(), e);
+				try {
+					if (!Boolean.TRUE.equals(dockerClient.execInspect(execId).running())) {
+						launchMonitor.failed("Slave process is no longer running.");
+					}
+				} catch (DockerException | InterruptedException e1) {
+					LOGGER.log(Level.FINE, "Could not inspect exec with id " + execId + ". " + e1.getMessage(), e1);
+				}
+			}
+		}
+		
+	}
+	
 	@Extension
     public static final Descriptor<ComputerLauncher> DESCRIPTOR = new Descriptor<ComputerLauncher>() {
         public String getDisplayName() {
@@ -0,0 +1,110 @@
+package com.github.kmbulebu.jenkins.plugins.dockercloud;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.Extension;
+import hudson.model.Label;
+import hudson.model.LoadStatistics;
+import hudson.model.Queue;
+import hudson.model.queue.QueueListener;
+import hudson.slaves.Cloud;
+import hudson.slaves.CloudProvisioningListener;
+import hudson.slaves.NodeProvisioner;
+import hudson.slaves.NodeProvisioner.PlannedNode;
+import jenkins.model.Jenkins;
+
+/**
+ * Provisions Docker containers for queued builds on the first provisioning review, instead of waiting for the
+ * default strategy's smoothed load statistics to catch up.
+ *
+ * Demand is the label's current queue length and capacity is its available and connecting executors plus planned
+ * nodes, so nodes already on their way are not asked for twice. Docker clouds that can provision the label are
+ * asked in turn for the shortfall. Labels no Docker cloud can provision, and any shortfall the Docker clouds could
+ * not cover, are left to the remaining strategies. A review is also requested as soon as a build becomes buildable, rather than on the next
+ * clock tick.
+ */
+@Extension(ordinal = 100)
+public class DockerProvisionerStrategy extends NodeProvisioner.Strategy {
+
+	private static final Logger LOGGER = Logger.getLogger(DockerProvisionerStrategy.class.getName());
+
+	private static final String DISABLED_PROPERTY = DockerProvisionerStrategy.class.getName() + ".disabled";
+
+	@Override
+	public NodeProvisioner.StrategyDecision apply(NodeProvisioner.StrategyState state) {
+		final Jenkins jenkins = Jenkins.getInstance();
+		if (jenkins == null || jenkins.isQuietingDown() || Boolean.getBoolean(DISABLED_PROPERTY)) {
+			return NodeProvisioner.StrategyDecision.CONSULT_REMAINING_STRATEGIES;
+		}
+
+		final Label label = state.getLabel();
+		final List<Cloud> dockerClouds = new ArrayList<Cloud>();
+		for (Cloud cloud : jenkins.clouds) {
+			if (cloud instanceof DockerCloud && cloud.canProvision(label)) {
+				dockerClouds.add(cloud);
+			}
+		}
+		if (dockerClouds.isEmpty()) {
+			// Not ours. Leave the label to the other clouds' strategies.
+			return NodeProvisioner.StrategyDecision.CONSULT_REMAINING_STRATEGIES;
+		}
+
+		final LoadStatistics.LoadStatisticsSnapshot snapshot = state.getSnapshot();
+		int capacity = snapshot.getAvailableExecutors() + snapshot.getConnectingExecutors()
+				+ state.getPlannedCapacitySnapshot() + state.getAdditionalPlannedCapacity();
+		final int demand = snapshot.getQueueLength();
+		if (capacity >= demand) {
+			return NodeProvisioner.StrategyDecision.PROVISIONING_COMPLETED;
+		}
+
+		for (Cloud cloud : dockerClouds) {
+			final int shortfall = demand - capacity;
+			final Collection<PlannedNode> plannedNodes = cloud.provision(label, shortfall);
+			if (plannedNodes.isEmpty()) {
+				continue;
+			}
+			LOGGER.log(Level.FINE, "Docker cloud ''{0}'' planned {1} nodes for label ''{2}'' with a shortfall of {3}.",
+					new Object[] {cloud.getDisplayName(), plannedNodes.size(), label, shortfall});
+			for (CloudProvisioningListener listener : CloudProvisioningListener.all()) {
+				listener.onStarted(cloud, label, plannedNodes);
+			}
+			state.recordPendingLaunches(plannedNodes);
+			for (PlannedNode plannedNode : plannedNodes) {
+				capacity += plannedNode.numExecutors;
+			}
+			if (capacity >= demand) {
+				return NodeProvisioner.StrategyDecision.PROVISIONING_COMPLETED;
+			}
+		}
+		return NodeProvisioner.StrategyDecision.CONSULT_REMAINING_STRATEGIES;
+	}
+
+	/**
+	 * Requests a provisioning review as soon as a build becomes buildable, if a Docker cloud can run it.
+	 */
+	@Extension
+	public static final class ReviewOnBuildable extends QueueListener {
+
+		@Override
+		public void onEnterBuildable(Queue.BuildableItem item) {
+			final Jenkins jenkins = Jenkins.getInstance();
+			if (jenkins == null || Boolean.getBoolean(DISABLED_PROPERTY)) {
+				return;
+			}
+			final Label label = item.getAssignedLabel();
+			for (Cloud cloud : jenkins.clouds) {
+				if (cloud instanceof DockerCloud && cloud.canProvision(label)) {
+					final NodeProvisioner provisioner = label == null ? jenkins.unlabeledNodeProvisioner : label.nodeProvisioner;
+					provisioner.suggestReviewNow();
+					return;
+				}
+			}
+		}
+
+	}
+
+}
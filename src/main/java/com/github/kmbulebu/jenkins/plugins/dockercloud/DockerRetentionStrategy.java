@@ -0,0 +1,150 @@
+package com.github.kmbulebu.jenkins.plugins.dockercloud;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.Descriptor;
+import hudson.model.Executor;
+import hudson.model.ExecutorListener;
+import hudson.model.Queue;
+import hudson.slaves.AbstractCloudComputer;
+import hudson.slaves.AbstractCloudSlave;
+import hudson.slaves.RetentionStrategy;
+
+/**
+ * Keeps a container for several builds instead of one.
+ *
+ * The container is terminated once it has served its maximum number of builds, or once it has been idle for the
+ * idle timeout. Between builds the slave's workspaces are deleted and the image config's cleanup command is run in
+ * the container. A container that can not be cleaned is terminated rather than reused.
+ */
+public class DockerRetentionStrategy extends RetentionStrategy<AbstractCloudComputer> implements ExecutorListener {
+
+	private static final Logger LOGGER = Logger.getLogger(DockerRetentionStrategy.class.getName());
+
+	/**
+	 * Builds a container serves before it is terminated. Zero for no limit.
+	 */
+	private final int maxBuilds;
+
+	private final int idleMinutes;
+
+	/**
+	 * Shell command run in the container between builds. May be null.
+	 */
+	private final String cleanupCommand;
+
+	private transient int completedBuilds;
+
+	private transient volatile boolean terminating;
+
+	public DockerRetentionStrategy(int maxBuilds, int idleMinutes, String cleanupCommand) {
+		this.maxBuilds = maxBuilds;
+		this.idleMinutes = idleMinutes;
+		this.cleanupCommand = cleanupCommand;
+	}
+
+	public int getMaxBuilds() {
+		return maxBuilds;
+	}
+
+	public int getIdleMinutes() {
+		return idleMinutes;
+	}
+
+	public String getCleanupCommand() {
+		return cleanupCommand;
+	}
+
+	@Override
+	public long check(AbstractCloudComputer c) {
+		if (c.isIdle() && !terminating) {
+			final long idleMillis = System.currentTimeMillis() - c.getIdleStartMilliseconds();
+			if (idleMillis > TimeUnit.MINUTES.toMillis(idleMinutes)) {
+				LOGGER.info("Container of " + c.getName() + " has been idle for " + TimeUnit.MILLISECONDS.toMinutes(idleMillis) + " minutes. Terminating.");
+				done(c);
+			}
+		}
+		return 1;
+	}
+
+	@Override
+	public void start(AbstractCloudComputer c) {
+		c.connect(false);
+	}
+
+	@Override
+	public boolean isAcceptingTasks(AbstractCloudComputer c) {
+		return !terminating;
+	}
+
+	@Override
+	public void taskAccepted(Executor executor, Queue.Task task) {
+	}
+
+	@Override
+	public void taskCompleted(Executor executor, Queue.Task task, long durationMS) {
+		completed(executor);
+	}
+
+	@Override
+	public void taskCompletedWithProblems(Executor executor, Queue.Task task, long durationMS, Throwable problems) {
+		completed(executor);
+	}
+
+	private void completed(Executor executor) {
+		final Computer computer = executor.getOwner();
+		if (!(computer instanceof AbstractCloudComputer)) {
+			return;
+		}
+		final AbstractCloudComputer<?> c = (AbstractCloudComputer<?>) computer;
+		final int builds;
+		synchronized (this) {
+			builds = ++completedBuilds;
+		}
+		if (maxBuilds > 0 && builds >= maxBuilds) {
+			LOGGER.info("Container of " + c.getName() + " has served " + builds + " builds. Terminating.");
+			done(c);
+			return;
+		}
+		// Runs on the executor's thread, so the next build waits for the container to be clean.
+		final AbstractCloudSlave node = c.getNode();
+		if (node instanceof DockerSlave && !((DockerSlave) node).cleanUpBetweenBuilds(cleanupCommand)) {
+			done(c);
+		}
+	}
+
+	private void done(final AbstractCloudComputer<?> c) {
+		terminating = true;
+		c.setAcceptingTasks(false);
+		Computer.threadPoolForRemoting.submit(new Runnable() {
+			@Override
+			public void run() {
+				final AbstractCloudSlave node = c.getNode();
+				if (node == null) {
+					return;
+				}
+				try {
+					node.terminate();
+				} catch (InterruptedException | IOException e) {
+					LOGGER.log(Level.WARNING, "Failed to terminate " + c.getName() + ". " + e.getMessage(), e);
+				}
+			}
+		});
+	}
+
+	@Extension
+	public static final class DescriptorImpl extends Descriptor<RetentionStrategy<?>> {
+
+		@Override
+		public String getDisplayName() {
+			return "Reuse Docker container";
+		}
+
+	}
+
+}
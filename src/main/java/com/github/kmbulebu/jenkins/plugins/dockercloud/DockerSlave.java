@@ -2,9 +2,6 @@ package com.github.kmbulebu.jenkins.plugins.dockercloud;
 
 import java.io.IOException;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -14,18 +11,22 @@ import org.jvnet.localizer.ResourceBundleHolder;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 
-import com.spotify.docker.client.exceptions.ContainerNotFoundException;
 import com.spotify.docker.client.exceptions.DockerCertificateException;
-import com.spotify.docker.client.DockerClient;
-import com.spotify.docker.client.DockerClient.RemoveContainerParam;
 import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.messages.ExecCreation;
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.DockerClient.ExecCreateParam;
+import com.spotify.docker.client.LogStream;
 
 import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.Computer;
 import hudson.model.TaskListener;
 import hudson.model.Descriptor.FormException;
 import hudson.slaves.AbstractCloudSlave;
 import hudson.slaves.NodeProperty;
 import hudson.slaves.OfflineCause;
+import hudson.slaves.RetentionStrategy;
 
 /**
  * Docker cloud provider.
@@ -45,6 +46,16 @@ public class DockerSlave extends AbstractCloudSlave {
 
 	private DockerCloud dockerCloud;
 
+	/**
+	 * URI of the endpoint running the container. Null for the cloud's primary endpoint.
+	 */
+	private String endpointUri;
+
+	/**
+	 * Name of the image config the container was created from.
+	 */
+	private String imageName;
+
 	/**
 	 * 
 	 */
@@ -52,7 +63,14 @@ public class DockerSlave extends AbstractCloudSlave {
 
 	@DataBoundConstructor
 	public DockerSlave(DockerLauncher launcher, DockerCloud dockerCloud, String name, String dockerId, String nodeDescription, String remoteFS, Mode mode, String labelString, List<? extends NodeProperty<?>> nodeProperties) throws FormException, IOException {
-		super(name, nodeDescription, remoteFS, 1, mode, labelString, launcher, new OnceRetentionStrategy(0), nodeProperties);
+		this(launcher, dockerCloud, name, dockerId, nodeDescription, remoteFS, mode, labelString, nodeProperties, new OnceRetentionStrategy(0));
+	}
+
+	/**
+	 * @param retentionStrategy Decides how many builds the container serves before it is terminated.
+	 */
+	public DockerSlave(DockerLauncher launcher, DockerCloud dockerCloud, String name, String dockerId, String nodeDescription, String remoteFS, Mode mode, String labelString, List<? extends NodeProperty<?>> nodeProperties, RetentionStrategy<?> retentionStrategy) throws FormException, IOException {
+		super(name, nodeDescription, remoteFS, 1, mode, labelString, launcher, retentionStrategy, nodeProperties);
 		this.dockerCloud = dockerCloud;
 		this.dockerId = dockerId;
 	}
@@ -70,6 +88,89 @@ public class DockerSlave extends AbstractCloudSlave {
 		this.dockerId = dockerId;
 	}
 
+	public String getEndpointUri() {
+		return endpointUri;
+	}
+
+	@DataBoundSetter
+	public void setEndpointUri(String endpointUri) {
+		this.endpointUri = endpointUri;
+	}
+
+	public String getImageName() {
+		return imageName;
+	}
+
+	@DataBoundSetter
+	public void setImageName(String imageName) {
+		this.imageName = imageName;
+	}
+
+	/**
+	 * @return The endpoint running the container.
+	 */
+	public DockerEndpoint getEndpoint() {
+		final DockerEndpoint endpoint = dockerCloud.getEndpoint(endpointUri);
+		if (endpoint == null) {
+			LOGGER.warning("Endpoint " + endpointUri + " of container " + dockerId + " is not configured. Using the cloud's primary endpoint.");
+			return dockerCloud.getPrimaryEndpoint();
+		}
+		return endpoint;
+	}
+
+	/**
+	 * @return The shared client for the endpoint running the container. Must not be closed.
+	 */
+	DockerClient getDockerClient() throws DockerCertificateException {
+		return dockerCloud.getDockerClient(getEndpoint());
+	}
+
+	/**
+	 * Prepare a reused container for its next build by deleting the workspaces and running the cleanup command.
+	 *
+	 * @param cleanupCommand Shell command to run in the container, or null for none.
+	 * @return False if the container could not be cleaned and should not be reused.
+	 */
+	boolean cleanUpBetweenBuilds(String cleanupCommand) {
+		try {
+			final FilePath workspaceRoot = getWorkspaceRoot();
+			if (workspaceRoot != null) {
+				LOGGER.fine("Deleting workspaces in container " + dockerId + ".");
+				workspaceRoot.deleteContents();
+			}
+			if (cleanupCommand == null || cleanupCommand.trim().isEmpty()) {
+				return true;
+			}
+
+			LOGGER.fine("Running cleanup command in container " + dockerId + ".");
+			final DockerClient dockerClient = getDockerClient();
+			final String execUser = ((DockerLauncher) getLauncher()).getExecUser();
+			final String[] command = new String[] {"sh", "-c", cleanupCommand};
+			final ExecCreation execCreation;
+			if (execUser == null) {
+				execCreation = dockerClient.execCreate(dockerId, command, ExecCreateParam.attachStdout(), ExecCreateParam.attachStderr());
+			} else {
+				execCreation = dockerClient.execCreate(dockerId, command, ExecCreateParam.user(execUser), ExecCreateParam.attachStdout(), ExecCreateParam.attachStderr());
+			}
+			final String output;
+			try (LogStream stream = dockerClient.execStart(execCreation.id())) {
+				output = stream.readFully();
+			}
+			final Integer exitCode = dockerClient.execInspect(execCreation.id()).exitCode();
+			if (exitCode == null || exitCode != 0) {
+				LOGGER.warning("Cleanup command in container " + dockerId + " exited with code " + exitCode + ". Not reusing the container. Output:\n" + output);
+				return false;
+			}
+			return true;
+		} catch (IOException | DockerException | DockerCertificateException e) {
+			LOGGER.log(Level.WARNING, "Could not clean up container " + dockerId + " between builds. Not reusing it. " + e.getMessage(), e);
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
 	@Override
 	public DockerComputer createComputer() {
 		return new DockerComputer(this);
@@ -77,38 +178,17 @@ public class DockerSlave extends AbstractCloudSlave {
 
 	@Override
 	protected void _terminate(TaskListener listener) throws IOException, InterruptedException {
-		try {
-			getComputer().disconnect(OfflineCause.create(new Localizable(HOLDER, "offline"))).get(5, TimeUnit.MINUTES);
-		} catch (ExecutionException e1) {
-			LOGGER.log(Level.WARNING, "Failed to gracefully disconnect from slave running on container  " + dockerId, e1);
-		} catch (TimeoutException e1) {
-			LOGGER.log(Level.WARNING, "Timed out waiting for graceful disconnect from slave running on container " + dockerId, e1);
+		// Close the channel without waiting. The container is force removed either way.
+		final Computer computer = toComputer();
+		if (computer != null) {
+			computer.disconnect(OfflineCause.create(new Localizable(HOLDER, "offline")));
 		}
 		if (dockerId == null) {
 			listener.getLogger().println("No container id exists to remove.");
 		} else {
-			// Delete from docker.
-			DockerClient docker = null;
-			try {
-				docker = dockerCloud.buildDockerClient();
-				LOGGER.info("Stopping container " + dockerId);
-				docker.stopContainer(dockerId, 1);
-				LOGGER.info("Removing container " + dockerId + " and volumes.");
-				docker.removeContainer(dockerId, RemoveContainerParam.forceKill(true), RemoveContainerParam.removeVolumes(true));
-			} catch (ContainerNotFoundException e) {
-				LOGGER.info("Container " + dockerId + " not found. Ignoring.");
-			} catch (DockerException e) {
-				LOGGER.log(Level.SEVERE, "Error while stopping and removing container " + dockerId, e);
-				throw new IOException(e.getMessage(), e);
-			} catch (DockerCertificateException e) {
-				LOGGER.log(Level.SEVERE, "Certificate error while stopping and removing container " + dockerId, e);
-				throw new IOException(e.getMessage(), e);
-			} finally {
-				if (docker != null) {
-					docker.close();
-				}
-			}
-			listener.getLogger().println("Slave node terminated in container " + dockerId + ".");
+			// Removed from docker in the background. Its capacity is free from here on.
+			ContainerReaper.forCloud(dockerCloud).remove(dockerCloud, getEndpoint(), dockerId, imageName);
+			listener.getLogger().println("Slave node terminated. Container " + dockerId + " queued for removal.");
 		}
 	}
 	
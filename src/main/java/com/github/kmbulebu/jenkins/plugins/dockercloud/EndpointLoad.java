@@ -0,0 +1,110 @@
+package com.github.kmbulebu.jenkins.plugins.dockercloud;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Load on one of a cloud's endpoints, used to place new containers on the least loaded daemon.
+ *
+ * Load is measured from the container inventory, as the number of the cloud's running containers and the memory
+ * reserved by their image configs' memory limits, plus containers planned but not started yet. Where the host's
+ * total memory is known, endpoints are compared by the share of it that is reserved, so bigger hosts take more.
+ * Containers placed during a provisioning round are added as they are planned, so a burst is spread over the
+ * endpoints instead of landing on whichever was emptiest at the start.
+ */
+final class EndpointLoad {
+
+	private static final Logger LOGGER = Logger.getLogger(EndpointLoad.class.getName());
+
+	private final DockerEndpoint endpoint;
+	private int containers;
+	private long reservedMemoryMB;
+	private final long hostMemoryMB;
+
+	private EndpointLoad(DockerEndpoint endpoint, int containers, long reservedMemoryMB, long hostMemoryMB) {
+		this.endpoint = endpoint;
+		this.containers = containers;
+		this.reservedMemoryMB = reservedMemoryMB;
+		this.hostMemoryMB = hostMemoryMB;
+	}
+
+	/**
+	 * Measure the load on each of the cloud's endpoints, including containers reserved but not started yet.
+	 * Endpoints that can not be reached, or whose circuit breaker is open, are left out.
+	 */
+	static List<EndpointLoad> measure(DockerCloud dockerCloud) throws InterruptedException {
+		final List<EndpointLoad> loads = new ArrayList<EndpointLoad>();
+		final CapacityReservations reservations = CapacityReservations.forCloud(dockerCloud);
+		for (DockerEndpoint endpoint : dockerCloud.getAllEndpoints()) {
+			if (!CircuitBreaker.isAvailable(dockerCloud, endpoint)) {
+				LOGGER.log(Level.FINE, "Endpoint " + endpoint.getUri() + " of cloud '" + dockerCloud.getDisplayName() + "' is backing off after failures. Not placing containers on it.");
+				continue;
+			}
+			try {
+				final ContainerInventory inventory = ContainerInventory.forEndpoint(dockerCloud, endpoint);
+				final int containers = inventory.countRunning(dockerCloud, endpoint, null) + reservations.getReservedCount(endpoint);
+				long reservedMemoryMB = reservations.getReservedMemoryMB(endpoint);
+				for (DockerImage dockerImage : dockerCloud.getImages()) {
+					if (dockerImage.isMemoryLimited()) {
+						reservedMemoryMB += inventory.countRunning(dockerCloud, endpoint, dockerImage.getName()) * dockerImage.getMemoryLimitMB();
+					}
+				}
+				// Only known once resource admission has fetched it. Never fetched here.
+				final long hostMemoryMB = HostCapacity.forEndpoint(endpoint).getMemoryMB();
+				loads.add(new EndpointLoad(endpoint, containers, reservedMemoryMB, hostMemoryMB));
+			} catch (InterruptedException e) {
+				throw e;
+			} catch (Exception e) {
+				LOGGER.log(Level.WARNING, "Could not measure load on endpoint " + endpoint.getUri() + " of cloud '" + dockerCloud.getDisplayName() + "'. Not placing containers on it. " + e.getMessage(), e);
+			}
+		}
+		return loads;
+	}
+
+	/**
+	 * @return The endpoint with the least reserved memory, then the fewest containers, that is below its instance
+	 *         cap. Null if every endpoint is full.
+	 */
+	static EndpointLoad leastLoaded(List<EndpointLoad> loads) {
+		EndpointLoad least = null;
+		for (EndpointLoad load : loads) {
+			if (load.containers >= load.endpoint.getInstanceCap()) {
+				continue;
+			}
+			if (least == null) {
+				least = load;
+				continue;
+			}
+			final int memory = compareMemory(load, least);
+			if (memory < 0 || (memory == 0 && load.containers < least.containers)) {
+				least = load;
+			}
+		}
+		return least;
+	}
+
+	private static int compareMemory(EndpointLoad a, EndpointLoad b) {
+		if (a.hostMemoryMB > 0 && b.hostMemoryMB > 0) {
+			// Compare the reserved shares of each host without dividing.
+			return Long.compare(a.reservedMemoryMB * b.hostMemoryMB, b.reservedMemoryMB * a.hostMemoryMB);
+		}
+		return Long.compare(a.reservedMemoryMB, b.reservedMemoryMB);
+	}
+
+	/**
+	 * Count a container of the image config placed on this endpoint.
+	 */
+	void add(DockerImage dockerImage) {
+		containers++;
+		if (dockerImage.isMemoryLimited()) {
+			reservedMemoryMB += dockerImage.getMemoryLimitMB();
+		}
+	}
+
+	DockerEndpoint getEndpoint() {
+		return endpoint;
+	}
+
+}
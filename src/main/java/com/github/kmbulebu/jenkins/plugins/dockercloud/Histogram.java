@@ -0,0 +1,83 @@
+package com.github.kmbulebu.jenkins.plugins.dockercloud;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free latency histogram with fixed buckets.
+ *
+ * Recording only increments counters, so it allocates nothing and is cheap enough to leave on. Percentiles are
+ * reported as the upper bound of the bucket they fall in.
+ */
+final class Histogram {
+
+	/**
+	 * Upper bounds of the buckets, in milliseconds. Anything longer lands in a final overflow bucket.
+	 */
+	private static final long[] BOUNDS = new long[] {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000,
+			20000, 30000, 60000, 120000, 300000, 600000};
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+
+	private final AtomicLong count = new AtomicLong();
+
+	private final AtomicLong totalMillis = new AtomicLong();
+
+	private final AtomicLong maxMillis = new AtomicLong();
+
+	/**
+	 * Record the time elapsed since a {@link System#nanoTime()} reading.
+	 */
+	void recordSince(long startNanos) {
+		record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+	}
+
+	void record(long millis) {
+		int bucket = 0;
+		while (bucket < BOUNDS.length && millis > BOUNDS[bucket]) {
+			bucket++;
+		}
+		buckets.incrementAndGet(bucket);
+		count.incrementAndGet();
+		totalMillis.addAndGet(millis);
+		long max = maxMillis.get();
+		while (millis > max && !maxMillis.compareAndSet(max, millis)) {
+			max = maxMillis.get();
+		}
+	}
+
+	long getCount() {
+		return count.get();
+	}
+
+	long getMeanMillis() {
+		final long samples = count.get();
+		return samples == 0 ? 0 : totalMillis.get() / samples;
+	}
+
+	long getMaxMillis() {
+		return maxMillis.get();
+	}
+
+	/**
+	 * @param percentile Between 0 and 100.
+	 * @return Upper bound of the bucket holding the percentile, the maximum for the overflow bucket, or 0 if empty.
+	 */
+	long getPercentileMillis(double percentile) {
+		final long samples = count.get();
+		if (samples == 0) {
+			return 0;
+		}
+		final long rank = (long) Math.ceil(samples * percentile / 100);
+		long seen = 0;
+		for (int bucket = 0; bucket < BOUNDS.length; bucket++) {
+			seen += buckets.get(bucket);
+			if (seen >= rank) {
+				return BOUNDS[bucket];
+			}
+		}
+		return maxMillis.get();
+	}
+
+}
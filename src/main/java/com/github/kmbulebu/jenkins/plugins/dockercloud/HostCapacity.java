@@ -0,0 +1,153 @@
+package com.github.kmbulebu.jenkins.plugins.dockercloud;
+
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.messages.Info;
+
+/**
+ * Memory and CPUs of a Docker host, as reported by the daemon's info.
+ *
+ * Admitting a container needs the host's totals, which rarely change, so they are cached and fetched again every few
+ * minutes. Only one caller refreshes at a time. The others carry on with the previous totals, and so does everyone
+ * if the refresh fails. State is kept per Docker host, by the endpoint's connection key.
+ */
+public final class HostCapacity {
+
+	private static final Logger LOGGER = Logger.getLogger(HostCapacity.class.getName());
+
+	private static final long REFRESH_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong(HostCapacity.class.getName() + ".refreshSeconds", 300));
+
+	private static final ConcurrentMap<String, HostCapacity> CAPACITIES = new ConcurrentHashMap<String, HostCapacity>();
+
+	private final AtomicBoolean refreshing = new AtomicBoolean();
+
+	private volatile Totals totals;
+
+	private volatile String lastError;
+
+	private HostCapacity() {
+	}
+
+	/**
+	 * Forget the host totals of Docker hosts nothing uses any more.
+	 *
+	 * @param usedConnections Connection keys of the Docker hosts still in use.
+	 */
+	static void dropUnused(Set<String> usedConnections) {
+		CAPACITIES.keySet().retainAll(usedConnections);
+	}
+
+	static HostCapacity forEndpoint(DockerEndpoint endpoint) {
+		final String connectionKey = endpoint.getConnectionKey();
+		HostCapacity capacity = CAPACITIES.get(connectionKey);
+		if (capacity == null) {
+			final HostCapacity created = new HostCapacity();
+			capacity = CAPACITIES.putIfAbsent(connectionKey, created);
+			if (capacity == null) {
+				capacity = created;
+			}
+		}
+		return capacity;
+	}
+
+	/**
+	 * @return The host's totals, fetched from the daemon if they are missing or due for a refresh.
+	 * @throws DockerException If the totals were never fetched and fetching them fails.
+	 */
+	Totals get(DockerClient dockerClient) throws DockerException, InterruptedException {
+		final Totals current = totals;
+		if (current != null && System.currentTimeMillis() - current.fetchedMillis < REFRESH_MILLIS) {
+			return current;
+		}
+		final boolean refresher = refreshing.compareAndSet(false, true);
+		if (!refresher && current != null) {
+			return current;
+		}
+		try {
+			final Info info = dockerClient.info();
+			final Long memTotal = info.memTotal();
+			final Integer cpus = info.cpus();
+			final Totals fetched = new Totals(memTotal == null ? 0 : memTotal / (1024 * 1024), cpus == null ? 0 : cpus, System.currentTimeMillis());
+			totals = fetched;
+			lastError = null;
+			return fetched;
+		} catch (DockerException e) {
+			lastError = e.getMessage();
+			if (current == null) {
+				throw e;
+			}
+			LOGGER.log(Level.WARNING, "Could not refresh host capacity. Keeping the previous totals. " + e.getMessage(), e);
+			return current;
+		} finally {
+			if (refresher) {
+				refreshing.set(false);
+			}
+		}
+	}
+
+	/**
+	 * @return Total memory of the host in MiB, or zero if it is not known yet.
+	 */
+	public long getMemoryMB() {
+		final Totals current = totals;
+		return current == null ? 0 : current.memoryMB;
+	}
+
+	/**
+	 * @return Number of CPUs of the host, or zero if it is not known yet.
+	 */
+	public int getCpus() {
+		final Totals current = totals;
+		return current == null ? 0 : current.cpus;
+	}
+
+	/**
+	 * @return When the totals were last fetched, or null if they never were.
+	 */
+	public Date getLastRefreshed() {
+		final Totals current = totals;
+		return current == null ? null : new Date(current.fetchedMillis);
+	}
+
+	/**
+	 * @return Error from the most recent refresh, or null if it succeeded.
+	 */
+	public String getLastError() {
+		return lastError;
+	}
+
+	/**
+	 * Host totals from one info call. Zero where the daemon did not report a value.
+	 */
+	static final class Totals {
+
+		private final long memoryMB;
+		private final int cpus;
+		private final long fetchedMillis;
+
+		private Totals(long memoryMB, int cpus, long fetchedMillis) {
+			this.memoryMB = memoryMB;
+			this.cpus = cpus;
+			this.fetchedMillis = fetchedMillis;
+		}
+
+		long getMemoryMB() {
+			return memoryMB;
+		}
+
+		int getCpus() {
+			return cpus;
+		}
+
+	}
+
+}
@@ -0,0 +1,173 @@
+package com.github.kmbulebu.jenkins.plugins.dockercloud;
+
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.exceptions.ImageNotFoundException;
+import com.spotify.docker.client.messages.ImageInfo;
+
+/**
+ * Remembers which images are present on a Docker host and makes concurrent requests for the same image share a
+ * single inspect and pull.
+ *
+ * When provisioning plans many nodes for one image at once, only the first caller inspects and pulls. The others
+ * wait for its result. Results are reused for a short time, which also limits forced pulls to one per window.
+ * Caches are kept per Docker host, by the endpoint's connection key.
+ */
+final class ImageCache {
+
+	private static final Logger LOGGER = Logger.getLogger(ImageCache.class.getName());
+
+	private static final String TTL_PROPERTY = ImageCache.class.getName() + ".ttlMs";
+
+	private static final long TTL_DEFAULT = TimeUnit.MINUTES.toMillis(1);
+
+	private static final ConcurrentMap<String, ImageCache> CACHES = new ConcurrentHashMap<String, ImageCache>();
+
+	private final ConcurrentMap<String, CachedImage> images = new ConcurrentHashMap<String, CachedImage>();
+
+	private final ConcurrentMap<String, FutureTask<ImageInfo>> inFlight = new ConcurrentHashMap<String, FutureTask<ImageInfo>>();
+
+	private ImageCache() {
+	}
+
+	/**
+	 * Forget the cached images of Docker hosts nothing uses any more.
+	 *
+	 * @param usedConnections Connection keys of the Docker hosts still in use.
+	 */
+	static void dropUnused(Set<String> usedConnections) {
+		CACHES.keySet().retainAll(usedConnections);
+	}
+
+	static ImageCache forEndpoint(DockerEndpoint endpoint) {
+		final String connectionKey = endpoint.getConnectionKey();
+		ImageCache cache = CACHES.get(connectionKey);
+		if (cache == null) {
+			final ImageCache created = new ImageCache();
+			cache = CACHES.putIfAbsent(connectionKey, created);
+			if (cache == null) {
+				cache = created;
+			}
+		}
+		return cache;
+	}
+
+	/**
+	 * Make sure the image config's image is present, pulling it if needed or forced.
+	 *
+	 * @return Details of the image on the Docker host.
+	 */
+	ImageInfo resolve(final DockerClient dockerClient, final DockerCloud dockerCloud, final DockerEndpoint endpoint, final DockerImage dockerImage) throws Exception {
+		final String imageName = dockerImage.getDockerImageName();
+		final CachedImage cached = images.get(imageName);
+		if (cached != null && !cached.isExpired()) {
+			LOGGER.fine("Image " + imageName + " found in cache.");
+			return cached.imageInfo;
+		}
+
+		final FutureTask<ImageInfo> task = new FutureTask<ImageInfo>(new Callable<ImageInfo>() {
+			@Override
+			public ImageInfo call() throws Exception {
+				final ImageInfo imageInfo = inspectOrPull(dockerClient, dockerCloud, endpoint, dockerImage);
+				images.put(imageName, new CachedImage(imageInfo));
+				return imageInfo;
+			}
+		});
+		final FutureTask<ImageInfo> running = inFlight.putIfAbsent(imageName, task);
+		try {
+			if (running != null) {
+				LOGGER.fine("Waiting for another request to resolve image " + imageName + ".");
+				return running.get();
+			}
+			task.run();
+			return task.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		} finally {
+			if (running == null) {
+				inFlight.remove(imageName, task);
+			}
+		}
+	}
+
+	/**
+	 * Forget an image, for example after the Docker host reports it missing.
+	 */
+	void invalidate(DockerEndpoint endpoint, String imageName) {
+		images.remove(imageName);
+		ImageRefresher.forEndpoint(endpoint).forget(imageName);
+	}
+
+	private ImageInfo inspectOrPull(DockerClient dockerClient, DockerCloud dockerCloud, DockerEndpoint endpoint, DockerImage dockerImage) throws Exception {
+		final ImageRefresher imageRefresher = ImageRefresher.forEndpoint(endpoint);
+		final ProvisioningMetrics metrics = ProvisioningMetrics.forImage(dockerCloud, dockerImage.getName());
+		if (dockerImage.isPullForced() && !dockerImage.isPullDisabled()) {
+			// Kept fresh in the background. Only pulled here until the first refresh.
+			final ImageInfo refreshed = imageRefresher.getCurrent(dockerImage.getDockerImageName());
+			if (refreshed != null) {
+				return refreshed;
+			}
+		}
+		
+		boolean imageExists;
+		long startNanos = System.nanoTime();
+		try {
+			LOGGER.fine("Checking if image " + dockerImage.getDockerImageName() + " exists.");
+			if (dockerClient.inspectImage(dockerImage.getDockerImageName()) != null) {
+				imageExists = true;
+			} else {
+				// Should be unreachable.
+				imageExists = false;
+			}
+		} catch (ImageNotFoundException e) {
+			imageExists = false;
+		}
+		metrics.record(ProvisioningMetrics.Phase.IMAGE_INSPECT, startNanos);
+		
+		LOGGER.fine("Image " + dockerImage + " exists? " + imageExists + ", Pull disabled? " + dockerImage.isPullDisabled());
+		
+		if (!imageExists || dockerImage.isPullForced()) {
+			if (dockerImage.isPullDisabled()) {
+				throw new IllegalStateException("Image '" + dockerImage.getDockerImageName() + "' does not exist on endpoint " + endpoint.getUri() + " of Docker cloud '" + dockerCloud.getDisplayName() + "' and pull is disabled.");
+			} 
+			LOGGER.info("Pulling image " + dockerImage.getDockerImageName() + ".");
+			startNanos = System.nanoTime();
+			dockerClient.pull(dockerImage.getDockerImageName());
+			metrics.record(ProvisioningMetrics.Phase.IMAGE_PULL, startNanos);
+			LOGGER.info("Finished pulling image " + dockerImage.getDockerImageName() + ".");
+			final ImageInfo pulled = dockerClient.inspectImage(dockerImage.getDockerImageName());
+			imageRefresher.record(dockerImage.getDockerImageName(), pulled);
+			return pulled;
+		} 
+
+		return dockerClient.inspectImage(dockerImage.getDockerImageName());
+	}
+
+	private static final class CachedImage {
+
+		private final ImageInfo imageInfo;
+		private final long resolvedMillis;
+
+		private CachedImage(ImageInfo imageInfo) {
+			this.imageInfo = imageInfo;
+			this.resolvedMillis = System.currentTimeMillis();
+		}
+
+		private boolean isExpired() {
+			return System.currentTimeMillis() - resolvedMillis > Long.getLong(TTL_PROPERTY, TTL_DEFAULT);
+		}
+
+	}
+
+}
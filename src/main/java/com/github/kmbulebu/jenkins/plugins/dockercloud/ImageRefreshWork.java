@@ -0,0 +1,45 @@
+package com.github.kmbulebu.jenkins.plugins.dockercloud;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import hudson.slaves.Cloud;
+import jenkins.model.Jenkins;
+
+/**
+ * Periodically pulls the images of force pull image configs ahead of demand.
+ */
+@Extension
+public class ImageRefreshWork extends AsyncPeriodicWork {
+
+	private static final String RECURRENCE_PERIOD_PROPERTY = ImageRefreshWork.class.getName() + ".recurrencePeriodMs";
+
+	public ImageRefreshWork() {
+		super("Docker image refresh");
+	}
+
+	@Override
+	public long getRecurrencePeriod() {
+		return Long.getLong(RECURRENCE_PERIOD_PROPERTY, TimeUnit.MINUTES.toMillis(5));
+	}
+
+	@Override
+	protected void execute(TaskListener listener) throws IOException, InterruptedException {
+		final Jenkins jenkins = Jenkins.getInstance();
+		if (jenkins == null) {
+			return;
+		}
+		for (Cloud cloud : jenkins.clouds) {
+			if (cloud instanceof DockerCloud) {
+				final DockerCloud dockerCloud = (DockerCloud) cloud;
+				for (DockerEndpoint endpoint : dockerCloud.getAllEndpoints()) {
+					ImageRefresher.forEndpoint(endpoint).refresh(dockerCloud, endpoint);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,151 @@
+package com.github.kmbulebu.jenkins.plugins.dockercloud;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.messages.ImageInfo;
+
+/**
+ * Keeps the images of force pull image configs fresh in the background, so creating a container never waits on
+ * a registry pull.
+ *
+ * Each refresh pulls the tag, which only transfers layers when the registry has a new digest, and records the
+ * resulting image id. Containers are then created from the recorded id. State is kept per Docker host, by the
+ * endpoint's connection key.
+ */
+public final class ImageRefresher {
+
+	private static final Logger LOGGER = Logger.getLogger(ImageRefresher.class.getName());
+
+	private static final ConcurrentMap<String, ImageRefresher> REFRESHERS = new ConcurrentHashMap<String, ImageRefresher>();
+
+	private final ConcurrentMap<String, Status> statuses = new ConcurrentHashMap<String, Status>();
+
+	private ImageRefresher() {
+	}
+
+	/**
+	 * Forget the refresh status of Docker hosts nothing uses any more.
+	 *
+	 * @param usedConnections Connection keys of the Docker hosts still in use.
+	 */
+	static void dropUnused(Set<String> usedConnections) {
+		REFRESHERS.keySet().retainAll(usedConnections);
+	}
+
+	static ImageRefresher forEndpoint(DockerEndpoint endpoint) {
+		final String connectionKey = endpoint.getConnectionKey();
+		ImageRefresher refresher = REFRESHERS.get(connectionKey);
+		if (refresher == null) {
+			final ImageRefresher created = new ImageRefresher();
+			refresher = REFRESHERS.putIfAbsent(connectionKey, created);
+			if (refresher == null) {
+				refresher = created;
+			}
+		}
+		return refresher;
+	}
+
+	/**
+	 * @return The most recently pulled image, or null if it has not been pulled yet.
+	 */
+	ImageInfo getCurrent(String dockerImageName) {
+		final Status status = statuses.get(dockerImageName);
+		return status == null ? null : status.imageInfo;
+	}
+
+	/**
+	 * @return Refresh status of the image, or null if it has not been refreshed yet.
+	 */
+	public Status getStatus(String dockerImageName) {
+		return statuses.get(dockerImageName);
+	}
+
+	/**
+	 * Record an image pulled outside of the background refresh.
+	 */
+	void record(String dockerImageName, ImageInfo imageInfo) {
+		statuses.put(dockerImageName, new Status(imageInfo, System.currentTimeMillis(), null));
+	}
+
+	void forget(String dockerImageName) {
+		statuses.remove(dockerImageName);
+	}
+
+	/**
+	 * Pull every force pull image of the cloud once on the endpoint.
+	 */
+	void refresh(DockerCloud dockerCloud, DockerEndpoint endpoint) throws InterruptedException {
+		final Set<String> refreshed = new HashSet<String>();
+		for (DockerImage dockerImage : dockerCloud.getImages()) {
+			final String imageName = dockerImage.getDockerImageName();
+			if (!dockerImage.isPullForced() || dockerImage.isPullDisabled() || !refreshed.add(imageName)) {
+				continue;
+			}
+			try {
+				final DockerClient dockerClient = dockerCloud.getDockerClient(endpoint);
+				LOGGER.fine("Refreshing image " + imageName + " on " + endpoint.getUri() + ".");
+				dockerClient.pull(imageName);
+				final ImageInfo imageInfo = dockerClient.inspectImage(imageName);
+				final ImageInfo previous = getCurrent(imageName);
+				if (previous == null || !previous.id().equals(imageInfo.id())) {
+					LOGGER.info("Image " + imageName + " on " + endpoint.getUri() + " is now " + imageInfo.id() + ".");
+				}
+				record(imageName, imageInfo);
+			} catch (InterruptedException e) {
+				throw e;
+			} catch (Exception e) {
+				LOGGER.log(Level.WARNING, "Could not refresh image " + imageName + " on endpoint " + endpoint.getUri() + " of Docker cloud '" + dockerCloud.getDisplayName() + "'. " + e.getMessage(), e);
+				// Keep using the last good image.
+				final Status previous = statuses.get(imageName);
+				statuses.put(imageName, new Status(previous == null ? null : previous.imageInfo,
+						previous == null ? 0 : previous.refreshedMillis, e.getMessage()));
+			}
+		}
+	}
+
+	/**
+	 * Refresh state of one image, shown on the cloud's page.
+	 */
+	public static final class Status {
+
+		private final ImageInfo imageInfo;
+		private final long refreshedMillis;
+		private final String lastError;
+
+		private Status(ImageInfo imageInfo, long refreshedMillis, String lastError) {
+			this.imageInfo = imageInfo;
+			this.refreshedMillis = refreshedMillis;
+			this.lastError = lastError;
+		}
+
+		/**
+		 * @return Id of the image currently used for new containers, or null if it was never pulled.
+		 */
+		public String getImageId() {
+			return imageInfo == null ? null : imageInfo.id();
+		}
+
+		/**
+		 * @return When the image was last pulled successfully, or null if it never was.
+		 */
+		public Date getLastRefreshed() {
+			return refreshedMillis == 0 ? null : new Date(refreshedMillis);
+		}
+
+		/**
+		 * @return Error from the most recent refresh, or null if it succeeded.
+		 */
+		public String getLastError() {
+			return lastError;
+		}
+
+	}
+
+}
@@ -0,0 +1,48 @@
+package com.github.kmbulebu.jenkins.plugins.dockercloud;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks a single slave launch. Released as soon as the slave comes online, or as soon as the slave process in
+ * the container is known to have failed, so the launcher does not have to sleep for the full timeout.
+ */
+final class LaunchMonitor {
+
+	private final CountDownLatch done = new CountDownLatch(1);
+
+	private volatile String failure;
+
+	void online() {
+		done.countDown();
+	}
+
+	void failed(String reason) {
+		if (failure == null) {
+			failure = reason;
+		}
+		done.countDown();
+	}
+
+	/**
+	 * @return false if the timeout elapsed without the slave coming online or failing.
+	 */
+	boolean await(long timeoutMillis) throws InterruptedException {
+		return done.await(timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return True once the slave has come online or failed.
+	 */
+	boolean isDone() {
+		return done.getCount() == 0;
+	}
+
+	/**
+	 * @return The reason the slave failed to start, or null if no failure was seen.
+	 */
+	String getFailure() {
+		return failure;
+	}
+
+}
@@ -0,0 +1,42 @@
+package com.github.kmbulebu.jenkins.plugins.dockercloud;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import hudson.slaves.Cloud;
+import jenkins.model.Jenkins;
+
+/**
+ * Periodically removes containers that no slave of their cloud owns.
+ */
+@Extension
+public class OrphanSweepWork extends AsyncPeriodicWork {
+
+	private static final String RECURRENCE_PERIOD_PROPERTY = OrphanSweepWork.class.getName() + ".recurrencePeriodMs";
+
+	public OrphanSweepWork() {
+		super("Docker orphaned container sweep");
+	}
+
+	@Override
+	public long getRecurrencePeriod() {
+		return Long.getLong(RECURRENCE_PERIOD_PROPERTY, TimeUnit.MINUTES.toMillis(5));
+	}
+
+	@Override
+	protected void execute(TaskListener listener) throws IOException, InterruptedException {
+		final Jenkins jenkins = Jenkins.getInstance();
+		if (jenkins == null) {
+			return;
+		}
+		for (Cloud cloud : jenkins.clouds) {
+			if (cloud instanceof DockerCloud) {
+				OrphanSweeper.forCloud((DockerCloud) cloud).sweep((DockerCloud) cloud);
+			}
+		}
+	}
+
+}
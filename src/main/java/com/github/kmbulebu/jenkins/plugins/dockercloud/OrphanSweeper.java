@@ -0,0 +1,202 @@
+package com.github.kmbulebu.jenkins.plugins.dockercloud;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.spotify.docker.client.DockerClient.ListContainersParam;
+import com.spotify.docker.client.messages.Container;
+
+import hudson.model.Node;
+import jenkins.model.Jenkins;
+
+/**
+ * Finds and removes a cloud's containers that no slave owns.
+ *
+ * Containers leak when the master restarts or crashes, when termination fails, or when a planned node fails after
+ * its container was started. The sweep lists every container carrying the cloud's label and this master's id, running
+ * or not, on each endpoint, and compares them with the cloud's live slaves, standby containers and pending removals.
+ * Containers of other masters sharing the host and the cloud name are left alone. A container is
+ * only removed once it has been seen without an owner for the whole grace period, which covers nodes still being
+ * provisioned, and at most a fixed number are queued for removal per sweep. Sweepers are kept by cloud name so
+ * they survive the cloud being re-instantiated on a configuration save.
+ */
+public final class OrphanSweeper {
+
+	private static final Logger LOGGER = Logger.getLogger(OrphanSweeper.class.getName());
+
+	private static final String GRACE_PERIOD_PROPERTY = OrphanSweeper.class.getName() + ".gracePeriodMs";
+
+	private static final String MAX_REMOVALS_PROPERTY = OrphanSweeper.class.getName() + ".maxRemovalsPerSweep";
+
+	private static final ConcurrentMap<String, OrphanSweeper> SWEEPERS = new ConcurrentHashMap<String, OrphanSweeper>();
+
+	/**
+	 * When each container was first seen without an owner.
+	 */
+	private final ConcurrentMap<String, Long> suspects = new ConcurrentHashMap<String, Long>();
+
+	private final AtomicLong removed = new AtomicLong();
+
+	private volatile long lastSweepMillis;
+
+	private volatile int lastRemovedCount;
+
+	private volatile String lastError;
+
+	private OrphanSweeper() {
+	}
+
+	/**
+	 * Forget the suspects of clouds that are no longer configured.
+	 */
+	static void dropUnconfigured(Set<String> configuredClouds) {
+		SWEEPERS.keySet().retainAll(configuredClouds);
+	}
+
+	static OrphanSweeper forCloud(DockerCloud dockerCloud) {
+		OrphanSweeper sweeper = SWEEPERS.get(dockerCloud.getName());
+		if (sweeper == null) {
+			final OrphanSweeper created = new OrphanSweeper();
+			sweeper = SWEEPERS.putIfAbsent(dockerCloud.getName(), created);
+			if (sweeper == null) {
+				sweeper = created;
+			}
+		}
+		return sweeper;
+	}
+
+	/**
+	 * Sweep every endpoint of the cloud once.
+	 */
+	synchronized void sweep(DockerCloud dockerCloud) throws InterruptedException {
+		final long gracePeriod = Long.getLong(GRACE_PERIOD_PROPERTY, TimeUnit.MINUTES.toMillis(10));
+		final int maxRemovals = Integer.getInteger(MAX_REMOVALS_PROPERTY, 20);
+		final Set<String> owned = getOwnedContainers(dockerCloud);
+		final Set<String> seen = new HashSet<String>();
+		final WarmPool warmPool = WarmPool.forCloud(dockerCloud);
+		final ContainerReaper reaper = ContainerReaper.forCloud(dockerCloud);
+		final long now = System.currentTimeMillis();
+		int queued = 0;
+		String error = null;
+
+		final String masterId = DockerLabelsBuilder.masterId();
+		if (masterId == null) {
+			return;
+		}
+
+		for (DockerEndpoint endpoint : dockerCloud.getAllEndpoints()) {
+			final List<Container> containers;
+			try {
+				// Only this master's containers. Another master may share the host and the cloud name.
+				containers = dockerCloud.getDockerClient(endpoint).listContainers(ListContainersParam.allContainers(),
+						ListContainersParam.withLabel(DockerLabelsBuilder.CLOUD_NAME, DockerLabelsBuilder.sanitize(dockerCloud.getName())),
+						ListContainersParam.withLabel(DockerLabelsBuilder.MASTER_ID, masterId));
+			} catch (InterruptedException e) {
+				throw e;
+			} catch (Exception e) {
+				LOGGER.log(Level.WARNING, "Could not list containers on endpoint " + endpoint.getUri() + " of cloud '" + dockerCloud.getDisplayName() + "'. " + e.getMessage(), e);
+				error = e.getMessage();
+				continue;
+			}
+
+			for (Container container : containers) {
+				final String containerId = container.id();
+				if (owned.contains(containerId) || warmPool.holds(containerId) || reaper.isQueued(containerId)) {
+					continue;
+				}
+				seen.add(containerId);
+				final Long firstSeen = suspects.putIfAbsent(containerId, now);
+				if (firstSeen == null || now - firstSeen < gracePeriod) {
+					continue;
+				}
+				if (queued >= maxRemovals) {
+					LOGGER.fine("Reached the limit of " + maxRemovals + " orphan removals for this sweep.");
+					continue;
+				}
+				LOGGER.info("Removing orphaned container " + containerId + " (" + container.status() + ") from endpoint " + endpoint.getUri() + " of cloud '" + dockerCloud.getDisplayName() + "'.");
+				reaper.remove(dockerCloud, endpoint, containerId, null);
+				suspects.remove(containerId);
+				queued++;
+			}
+		}
+
+		// Forget containers that have gone or found an owner.
+		final Iterator<Map.Entry<String, Long>> iterator = suspects.entrySet().iterator();
+		while (iterator.hasNext()) {
+			if (!seen.contains(iterator.next().getKey())) {
+				iterator.remove();
+			}
+		}
+
+		removed.addAndGet(queued);
+		lastRemovedCount = queued;
+		lastError = error;
+		lastSweepMillis = now;
+		if (queued > 0) {
+			LOGGER.info("Queued " + queued + " orphaned containers of cloud '" + dockerCloud.getDisplayName() + "' for removal.");
+		}
+	}
+
+	private static Set<String> getOwnedContainers(DockerCloud dockerCloud) {
+		final Set<String> owned = new HashSet<String>();
+		final Jenkins jenkins = Jenkins.getInstance();
+		if (jenkins == null) {
+			return owned;
+		}
+		for (Node node : jenkins.getNodes()) {
+			if (node instanceof DockerSlave) {
+				final DockerSlave slave = (DockerSlave) node;
+				if (slave.getDockerId() != null && dockerCloud.getName().equals(slave.getDockerCloud().getName())) {
+					owned.add(slave.getDockerId());
+				}
+			}
+		}
+		return owned;
+	}
+
+	/**
+	 * @return When the last sweep finished, or null if none has.
+	 */
+	public Date getLastSweep() {
+		return lastSweepMillis == 0 ? null : new Date(lastSweepMillis);
+	}
+
+	/**
+	 * @return Number of orphans queued for removal by the last sweep.
+	 */
+	public int getLastRemovedCount() {
+		return lastRemovedCount;
+	}
+
+	/**
+	 * @return Number of orphans queued for removal since Jenkins started.
+	 */
+	public long getRemovedCount() {
+		return removed.get();
+	}
+
+	/**
+	 * @return Number of containers without an owner that are still within the grace period.
+	 */
+	public int getSuspectCount() {
+		return suspects.size();
+	}
+
+	/**
+	 * @return Error from the last sweep, or null if every endpoint was swept.
+	 */
+	public String getLastError() {
+		return lastError;
+	}
+
+}
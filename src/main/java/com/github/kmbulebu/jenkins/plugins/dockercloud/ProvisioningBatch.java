@@ -0,0 +1,120 @@
+package com.github.kmbulebu.jenkins.plugins.dockercloud;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.github.kmbulebu.jenkins.plugins.dockercloud.CreateContainerCallable.StartedContainer;
+import com.spotify.docker.client.DockerClient;
+
+/**
+ * The containers requested by a single provision call for one image config.
+ *
+ * The image is resolved and the container spec built once, by whichever node of the batch gets there first, and
+ * shared with the rest. Create and start calls then fan out with bounded parallelism so a large burst does not
+ * flood the Docker daemon. Each node's future completes as soon as its own container is started. Failures are
+ * recorded against the circuit breaker of the endpoint or the image config, whichever caused them.
+ */
+final class ProvisioningBatch {
+
+	private static final String PARALLELISM_PROPERTY = ProvisioningBatch.class.getName() + ".parallelism";
+
+	private static final int PARALLELISM_DEFAULT = 10;
+
+	private final DockerClient dockerClient;
+	private final DockerEndpoint endpoint;
+	private final ProvisioningMetrics metrics;
+	private final CircuitBreaker imageBreaker;
+	private final AtomicBoolean specFailureRecorded = new AtomicBoolean();
+	private final FutureTask<ContainerSpec> spec;
+	private final Semaphore permits;
+
+	/**
+	 * @param dockerClient Client for the endpoint.
+	 * @param endpoint Endpoint the batch's containers are placed on.
+	 * @param standby True if the containers are started ahead of demand for the warm pool.
+	 */
+	ProvisioningBatch(final DockerClient dockerClient, final DockerCloud dockerCloud, final DockerEndpoint endpoint, final DockerImage dockerImage, final boolean standby) {
+		this.dockerClient = dockerClient;
+		this.endpoint = endpoint;
+		this.metrics = ProvisioningMetrics.forImage(dockerCloud, dockerImage.getName());
+		this.imageBreaker = CircuitBreaker.forImage(dockerCloud, dockerImage.getName());
+		this.spec = new FutureTask<ContainerSpec>(new Callable<ContainerSpec>() {
+			@Override
+			public ContainerSpec call() throws Exception {
+				return ContainerSpec.build(dockerClient, dockerCloud, endpoint, dockerImage, standby);
+			}
+		});
+		this.permits = new Semaphore(Math.max(1, Integer.getInteger(PARALLELISM_PROPERTY, PARALLELISM_DEFAULT)));
+	}
+
+	DockerClient getDockerClient() {
+		return dockerClient;
+	}
+
+	DockerEndpoint getEndpoint() {
+		return endpoint;
+	}
+
+	/**
+	 * Get the batch's container spec, building it on the calling thread if no other node has yet.
+	 */
+	ContainerSpec getSpec() throws Exception {
+		// A no-op unless this is the first caller. Everyone else waits for its result.
+		spec.run();
+		try {
+			return spec.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Create and start one container of the batch.
+	 */
+	StartedContainer startContainer() throws Exception {
+		return startContainer(null);
+	}
+
+	/**
+	 * Create and start one container of the batch.
+	 *
+	 * @param slaveName If not null, the container runs the slave for this node name as its main process.
+	 */
+	StartedContainer startContainer(String slaveName) throws Exception {
+		final ContainerSpec containerSpec;
+		try {
+			containerSpec = getSpec();
+		} catch (InterruptedException e) {
+			throw e;
+		} catch (Exception e) {
+			metrics.failed(ProvisioningMetrics.FailureCause.IMAGE);
+			// Every node of the batch sees the same failure. Count it once.
+			if (specFailureRecorded.compareAndSet(false, true)) {
+				CircuitBreaker.failed(endpoint, imageBreaker, e);
+			}
+			throw e;
+		}
+		permits.acquire();
+		try {
+			final StartedContainer container = containerSpec.start(dockerClient, metrics, slaveName);
+			// The image config only counts as healthy once a slave connects from the container.
+			CircuitBreaker.forEndpoint(endpoint).succeeded();
+			return container;
+		} catch (InterruptedException e) {
+			throw e;
+		} catch (Exception e) {
+			metrics.failed(ProvisioningMetrics.FailureCause.CONTAINER);
+			CircuitBreaker.failed(endpoint, imageBreaker, e);
+			throw e;
+		} finally {
+			permits.release();
+		}
+	}
+
+}
@@ -0,0 +1,199 @@
+package com.github.kmbulebu.jenkins.plugins.dockercloud;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+/**
+ * Runs a cloud's container creation work on its own bounded thread pool.
+ *
+ * Jenkins' shared remoting pool is unbounded, so a large burst would otherwise start a thread per planned node,
+ * all calling the same Docker daemons at once and competing with every other remoting task on the master. Work
+ * beyond the cloud's parallelism waits in a bounded queue. Work beyond that is rejected, and NodeProvisioner asks
+ * again on a later tick. Executors are kept by cloud name so they survive the cloud being re-instantiated on a
+ * configuration save, are rebuilt if the queue size changes, and are shut down once their cloud is gone.
+ */
+public final class ProvisioningExecutor {
+
+	private static final Logger LOGGER = Logger.getLogger(ProvisioningExecutor.class.getName());
+
+	private static final ConcurrentMap<String, ProvisioningExecutor> EXECUTORS = new ConcurrentHashMap<String, ProvisioningExecutor>();
+
+	private final ThreadPoolExecutor executor;
+
+	private final int queueSize;
+
+	private final AtomicLong waited = new AtomicLong();
+
+	private final AtomicLong totalWaitMillis = new AtomicLong();
+
+	private final AtomicLong maxWaitMillis = new AtomicLong();
+
+	private final AtomicLong rejected = new AtomicLong();
+
+	private ProvisioningExecutor(String cloudName, int parallelism, int queueSize) {
+		this.queueSize = queueSize;
+		this.executor = new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(queueSize),
+				new NamingThreadFactory(new DaemonThreadFactory(), "Docker provisioning for cloud " + cloudName));
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	static ProvisioningExecutor forCloud(DockerCloud dockerCloud) {
+		final int parallelism = dockerCloud.getProvisioningParallelism();
+		final int queueSize = dockerCloud.getProvisioningQueueSize();
+		ProvisioningExecutor current = EXECUTORS.get(dockerCloud.getName());
+		if (current != null && current.queueSize == queueSize) {
+			current.setParallelism(parallelism);
+			return current;
+		}
+		synchronized (EXECUTORS) {
+			current = EXECUTORS.get(dockerCloud.getName());
+			if (current != null && current.queueSize == queueSize) {
+				current.setParallelism(parallelism);
+				return current;
+			}
+			final ProvisioningExecutor created = new ProvisioningExecutor(dockerCloud.getName(), parallelism, queueSize);
+			EXECUTORS.put(dockerCloud.getName(), created);
+			if (current != null) {
+				LOGGER.info("Provisioning queue size changed for cloud '" + dockerCloud.getName() + "'. Replacing its executor.");
+				// Already queued work still runs.
+				current.executor.shutdown();
+			}
+			return created;
+		}
+	}
+
+	/**
+	 * Shut down the executors of clouds that are no longer configured. Already queued work still runs.
+	 *
+	 * @param configuredClouds Names of the Docker clouds currently configured.
+	 */
+	static void shutDownUnconfigured(Set<String> configuredClouds) {
+		synchronized (EXECUTORS) {
+			final Iterator<Map.Entry<String, ProvisioningExecutor>> entries = EXECUTORS.entrySet().iterator();
+			while (entries.hasNext()) {
+				final Map.Entry<String, ProvisioningExecutor> entry = entries.next();
+				if (!configuredClouds.contains(entry.getKey())) {
+					entries.remove();
+					entry.getValue().executor.shutdown();
+					LOGGER.info("Shut down provisioning executor of cloud '" + entry.getKey() + "', which is no longer configured.");
+				}
+			}
+		}
+	}
+
+	private void setParallelism(int parallelism) {
+		if (executor.getMaximumPoolSize() == parallelism) {
+			return;
+		}
+		// Order matters, the core size can never exceed the maximum.
+		if (parallelism > executor.getMaximumPoolSize()) {
+			executor.setMaximumPoolSize(parallelism);
+			executor.setCorePoolSize(parallelism);
+		} else {
+			executor.setCorePoolSize(parallelism);
+			executor.setMaximumPoolSize(parallelism);
+		}
+	}
+
+	/**
+	 * Queue work, recording how long it waits for a thread.
+	 *
+	 * @throws RejectedExecutionException If the queue is full.
+	 */
+	<T> Future<T> submit(Callable<T> callable) {
+		final TimedTask<T> task = new TimedTask<T>(callable);
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			rejected.incrementAndGet();
+			throw e;
+		}
+		return task;
+	}
+
+	/**
+	 * @return Number of tasks currently running.
+	 */
+	public int getActiveCount() {
+		return executor.getActiveCount();
+	}
+
+	/**
+	 * @return Number of tasks waiting for a thread.
+	 */
+	public int getQueueDepth() {
+		return executor.getQueue().size();
+	}
+
+	public int getQueueSize() {
+		return queueSize;
+	}
+
+	public int getParallelism() {
+		return executor.getMaximumPoolSize();
+	}
+
+	/**
+	 * @return Average time tasks waited in the queue before running, in milliseconds.
+	 */
+	public long getAverageWaitMillis() {
+		final long count = waited.get();
+		return count == 0 ? 0 : totalWaitMillis.get() / count;
+	}
+
+	/**
+	 * @return Longest time a task waited in the queue before running, in milliseconds.
+	 */
+	public long getMaxWaitMillis() {
+		return maxWaitMillis.get();
+	}
+
+	/**
+	 * @return Number of tasks turned away because the queue was full.
+	 */
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	private void recordWait(long waitMillis) {
+		waited.incrementAndGet();
+		totalWaitMillis.addAndGet(waitMillis);
+		long max = maxWaitMillis.get();
+		while (waitMillis > max && !maxWaitMillis.compareAndSet(max, waitMillis)) {
+			max = maxWaitMillis.get();
+		}
+	}
+
+	private final class TimedTask<T> extends FutureTask<T> {
+
+		private final long queuedMillis = System.currentTimeMillis();
+
+		private TimedTask(Callable<T> callable) {
+			super(callable);
+		}
+
+		@Override
+		public void run() {
+			recordWait(System.currentTimeMillis() - queuedMillis);
+			super.run();
+		}
+
+	}
+
+}
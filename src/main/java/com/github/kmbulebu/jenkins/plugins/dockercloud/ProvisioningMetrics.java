@@ -0,0 +1,293 @@
+package com.github.kmbulebu.jenkins.plugins.dockercloud;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import net.sf.json.JSONObject;
+
+/**
+ * Timings and counters for provisioning containers of one image config in one cloud.
+ *
+ * Instances are created once per image config and then only updated through atomic counters, so recording does
+ * not allocate or lock and can stay on in production. Each instance is registered as an MXBean, and the cloud's
+ * metrics page serves the same figures as JSON. A cloud's metrics are dropped and its MXBeans unregistered once the
+ * cloud is no longer configured.
+ */
+public final class ProvisioningMetrics implements ProvisioningMetricsMXBean {
+
+	private static final Logger LOGGER = Logger.getLogger(ProvisioningMetrics.class.getName());
+
+	private static final String JMX_DOMAIN = "com.github.kmbulebu.jenkins.plugins.dockercloud";
+
+	/**
+	 * Used for work that can not be traced to an image config, such as removing orphaned containers.
+	 */
+	static final String UNKNOWN_IMAGE = "(unknown)";
+
+	private static final ConcurrentMap<String, ConcurrentMap<String, ProvisioningMetrics>> METRICS = new ConcurrentHashMap<String, ConcurrentMap<String, ProvisioningMetrics>>();
+
+	/**
+	 * Steps between a build being queued and its container being removed.
+	 */
+	public enum Phase {
+		IMAGE_INSPECT, IMAGE_PULL, CONTAINER_CREATE, CONTAINER_START, EXEC_CREATE, EXEC_START, AGENT_CONNECT, TERMINATE
+	}
+
+	public enum FailureCause {
+		/** The image could not be inspected or pulled. */
+		IMAGE,
+		/** The container could not be created or started. */
+		CONTAINER,
+		/** The slave command could not be exec'd in the container. */
+		EXEC,
+		/** The slave process failed before connecting. */
+		LAUNCH,
+		/** The slave did not connect in time. */
+		CONNECT_TIMEOUT,
+		/** The container could not be removed. */
+		TERMINATE
+	}
+
+	private final String cloudName;
+
+	private final String imageName;
+
+	private final Histogram[] phases = new Histogram[Phase.values().length];
+
+	private final AtomicLongArray failures = new AtomicLongArray(FailureCause.values().length);
+
+	private final AtomicLong capRejections = new AtomicLong();
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	private ProvisioningMetrics(String cloudName, String imageName) {
+		this.cloudName = cloudName;
+		this.imageName = imageName;
+		for (int i = 0; i < phases.length; i++) {
+			phases[i] = new Histogram();
+		}
+	}
+
+	/**
+	 * @param imageName Name of the image config, or null if it is not known.
+	 */
+	static ProvisioningMetrics forImage(DockerCloud dockerCloud, String imageName) {
+		final String key = imageName == null ? UNKNOWN_IMAGE : imageName;
+		ConcurrentMap<String, ProvisioningMetrics> cloudMetrics = METRICS.get(dockerCloud.getName());
+		if (cloudMetrics == null) {
+			METRICS.putIfAbsent(dockerCloud.getName(), new ConcurrentHashMap<String, ProvisioningMetrics>());
+			cloudMetrics = METRICS.get(dockerCloud.getName());
+		}
+		ProvisioningMetrics metrics = cloudMetrics.get(key);
+		if (metrics == null) {
+			final ProvisioningMetrics created = new ProvisioningMetrics(dockerCloud.getName(), key);
+			metrics = cloudMetrics.putIfAbsent(key, created);
+			if (metrics == null) {
+				metrics = created;
+				created.register();
+			}
+		}
+		return metrics;
+	}
+
+	/**
+	 * @return Metrics of every image config of the cloud that has recorded anything.
+	 */
+	static Collection<ProvisioningMetrics> forCloud(DockerCloud dockerCloud) {
+		final ConcurrentMap<String, ProvisioningMetrics> cloudMetrics = METRICS.get(dockerCloud.getName());
+		if (cloudMetrics == null) {
+			return Collections.emptyList();
+		}
+		return new ArrayList<ProvisioningMetrics>(cloudMetrics.values());
+	}
+
+	/**
+	 * Drop the metrics of clouds that have been renamed or removed from the configuration and unregister their
+	 * MXBeans.
+	 */
+	static void unregisterUnconfigured(Set<String> configuredClouds) {
+		final Iterator<Map.Entry<String, ConcurrentMap<String, ProvisioningMetrics>>> entries = METRICS.entrySet().iterator();
+		while (entries.hasNext()) {
+			final Map.Entry<String, ConcurrentMap<String, ProvisioningMetrics>> entry = entries.next();
+			if (!configuredClouds.contains(entry.getKey())) {
+				entries.remove();
+				for (ProvisioningMetrics metrics : entry.getValue().values()) {
+					metrics.unregister();
+				}
+				LOGGER.info("Unregistered provisioning metrics of cloud '" + entry.getKey() + "', which is no longer configured.");
+			}
+		}
+	}
+
+	private ObjectName objectName() throws JMException {
+		return new ObjectName(JMX_DOMAIN + ":type=ProvisioningMetrics,cloud=" + ObjectName.quote(cloudName) + ",image=" + ObjectName.quote(imageName));
+	}
+
+	private void register() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName());
+		} catch (JMException e) {
+			LOGGER.log(Level.WARNING, "Could not register provisioning metrics for image config '" + imageName + "' of cloud '" + cloudName + "' with JMX. " + e.getMessage(), e);
+		}
+	}
+
+	private void unregister() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName());
+		} catch (InstanceNotFoundException e) {
+			// Registration failed, nothing to remove.
+		} catch (JMException e) {
+			LOGGER.log(Level.WARNING, "Could not unregister provisioning metrics for image config '" + imageName + "' of cloud '" + cloudName + "' from JMX. " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Record the time a phase took.
+	 *
+	 * @param startNanos {@link System#nanoTime()} when the phase began.
+	 */
+	void record(Phase phase, long startNanos) {
+		phases[phase.ordinal()].recordSince(startNanos);
+	}
+
+	void failed(FailureCause cause) {
+		failures.incrementAndGet(cause.ordinal());
+	}
+
+	void capRejected() {
+		capRejections.incrementAndGet();
+	}
+
+	void started() {
+		inFlight.incrementAndGet();
+	}
+
+	void finished() {
+		inFlight.decrementAndGet();
+	}
+
+	@Override
+	public String getCloudName() {
+		return cloudName;
+	}
+
+	@Override
+	public String getImageName() {
+		return imageName;
+	}
+
+	@Override
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	@Override
+	public long getCapRejections() {
+		return capRejections.get();
+	}
+
+	@Override
+	public Map<String, Long> getFailures() {
+		final Map<String, Long> counts = new LinkedHashMap<String, Long>();
+		for (FailureCause cause : FailureCause.values()) {
+			counts.put(cause.name(), failures.get(cause.ordinal()));
+		}
+		return counts;
+	}
+
+	@Override
+	public Map<String, PhaseStats> getPhases() {
+		final Map<String, PhaseStats> stats = new LinkedHashMap<String, PhaseStats>();
+		for (Phase phase : Phase.values()) {
+			stats.put(phase.name(), new PhaseStats(phases[phase.ordinal()]));
+		}
+		return stats;
+	}
+
+	JSONObject toJSON() {
+		final JSONObject phasesJson = new JSONObject();
+		for (Map.Entry<String, PhaseStats> entry : getPhases().entrySet()) {
+			final PhaseStats stats = entry.getValue();
+			final JSONObject phaseJson = new JSONObject();
+			phaseJson.put("count", stats.getCount());
+			phaseJson.put("meanMillis", stats.getMeanMillis());
+			phaseJson.put("maxMillis", stats.getMaxMillis());
+			phaseJson.put("p50Millis", stats.getP50Millis());
+			phaseJson.put("p95Millis", stats.getP95Millis());
+			phaseJson.put("p99Millis", stats.getP99Millis());
+			phasesJson.put(entry.getKey(), phaseJson);
+		}
+		final JSONObject json = new JSONObject();
+		json.put("image", imageName);
+		json.put("inFlight", getInFlight());
+		json.put("capRejections", getCapRejections());
+		json.put("failures", JSONObject.fromObject(getFailures()));
+		json.put("phases", phasesJson);
+		return json;
+	}
+
+	/**
+	 * Snapshot of one phase's latency.
+	 */
+	public static final class PhaseStats {
+
+		private final long count;
+		private final long meanMillis;
+		private final long maxMillis;
+		private final long p50Millis;
+		private final long p95Millis;
+		private final long p99Millis;
+
+		private PhaseStats(Histogram histogram) {
+			this.count = histogram.getCount();
+			this.meanMillis = histogram.getMeanMillis();
+			this.maxMillis = histogram.getMaxMillis();
+			this.p50Millis = histogram.getPercentileMillis(50);
+			this.p95Millis = histogram.getPercentileMillis(95);
+			this.p99Millis = histogram.getPercentileMillis(99);
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getMeanMillis() {
+			return meanMillis;
+		}
+
+		public long getMaxMillis() {
+			return maxMillis;
+		}
+
+		public long getP50Millis() {
+			return p50Millis;
+		}
+
+		public long getP95Millis() {
+			return p95Millis;
+		}
+
+		public long getP99Millis() {
+			return p99Millis;
+		}
+
+	}
+
+}
@@ -0,0 +1,34 @@
+package com.github.kmbulebu.jenkins.plugins.dockercloud;
+
+import java.util.Map;
+
+/**
+ * Provisioning metrics of one image config, exposed through JMX.
+ */
+public interface ProvisioningMetricsMXBean {
+
+	String getCloudName();
+
+	String getImageName();
+
+	/**
+	 * @return Containers being created right now.
+	 */
+	int getInFlight();
+
+	/**
+	 * @return Nodes not planned because an instance cap was met.
+	 */
+	long getCapRejections();
+
+	/**
+	 * @return Failures by cause.
+	 */
+	Map<String, Long> getFailures();
+
+	/**
+	 * @return Latency of each provisioning phase.
+	 */
+	Map<String, ProvisioningMetrics.PhaseStats> getPhases();
+
+}
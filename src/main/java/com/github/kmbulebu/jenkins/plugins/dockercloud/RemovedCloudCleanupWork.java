@@ -0,0 +1,62 @@
+package com.github.kmbulebu.jenkins.plugins.dockercloud;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import hudson.slaves.Cloud;
+import jenkins.model.Jenkins;
+
+/**
+ * Periodically releases the threads and other state kept by cloud name for clouds that have been renamed or removed
+ * from the configuration, and the clients and other state kept by connection key for Docker hosts nothing uses any
+ * more. A cloud or host added again later starts afresh.
+ */
+@Extension
+public class RemovedCloudCleanupWork extends AsyncPeriodicWork {
+
+	private static final String RECURRENCE_PERIOD_PROPERTY = RemovedCloudCleanupWork.class.getName() + ".recurrencePeriodMs";
+
+	public RemovedCloudCleanupWork() {
+		super("Docker removed cloud cleanup");
+	}
+
+	@Override
+	public long getRecurrencePeriod() {
+		return Long.getLong(RECURRENCE_PERIOD_PROPERTY, TimeUnit.MINUTES.toMillis(5));
+	}
+
+	@Override
+	protected void execute(TaskListener listener) throws IOException, InterruptedException {
+		final Jenkins jenkins = Jenkins.getInstance();
+		if (jenkins == null) {
+			return;
+		}
+		final Set<String> configured = new HashSet<String>();
+		for (Cloud cloud : jenkins.clouds) {
+			if (cloud instanceof DockerCloud) {
+				configured.add(((DockerCloud) cloud).getName());
+			}
+		}
+		// Standby containers are removed before the clients of their hosts may be closed.
+		WarmPool.dropUnconfigured(configured);
+		ProvisioningExecutor.shutDownUnconfigured(configured);
+		CapacityReservations.dropUnconfigured(configured);
+		CacheVolumes.dropUnconfigured(configured);
+		OrphanSweeper.dropUnconfigured(configured);
+		ContainerReaper.shutDownUnconfigured(configured);
+		ProvisioningMetrics.unregisterUnconfigured(configured);
+
+		final Set<String> used = DockerClientProvider.usedConnections(jenkins);
+		CircuitBreaker.dropUnused(configured, used);
+		ImageCache.dropUnused(used);
+		ImageRefresher.dropUnused(used);
+		HostCapacity.dropUnused(used);
+		DockerClientProvider.closeUnused();
+	}
+
+}
@@ -0,0 +1,238 @@
+package com.github.kmbulebu.jenkins.plugins.dockercloud;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.github.kmbulebu.jenkins.plugins.dockercloud.CapacityReservations.Reservation;
+import com.github.kmbulebu.jenkins.plugins.dockercloud.CreateContainerCallable.StartedContainer;
+import com.spotify.docker.client.DockerClient.RemoveContainerParam;
+import com.spotify.docker.client.exceptions.DockerCertificateException;
+import com.spotify.docker.client.exceptions.DockerException;
+
+/**
+ * Standby containers, created and started ahead of demand, so a queued build only waits for the slave to be
+ * exec'd and connect.
+ *
+ * Each image config with a minimum idle count keeps that many containers running the placeholder command. They
+ * carry the normal cloud and image labels, so they count towards both instance caps. Standby containers that sit
+ * unused longer than the image config's idle TTL are removed and replaced, so they do not go stale.
+ */
+final class WarmPool {
+
+	private static final Logger LOGGER = Logger.getLogger(WarmPool.class.getName());
+
+	private static final ConcurrentMap<String, WarmPool> POOLS = new ConcurrentHashMap<String, WarmPool>();
+
+	private final String cloudName;
+
+	private final ConcurrentMap<String, ConcurrentLinkedQueue<StartedContainer>> idle = new ConcurrentHashMap<String, ConcurrentLinkedQueue<StartedContainer>>();
+
+	private final AtomicBoolean refilling = new AtomicBoolean();
+
+	private WarmPool(String cloudName) {
+		this.cloudName = cloudName;
+	}
+
+	static WarmPool forCloud(DockerCloud dockerCloud) {
+		WarmPool pool = POOLS.get(dockerCloud.getName());
+		if (pool == null) {
+			final WarmPool created = new WarmPool(dockerCloud.getName());
+			pool = POOLS.putIfAbsent(dockerCloud.getName(), created);
+			if (pool == null) {
+				pool = created;
+			}
+		}
+		return pool;
+	}
+
+	/**
+	 * Drop the pools of clouds that are no longer configured and remove their standby containers, which no slave will
+	 * ever take.
+	 */
+	static void dropUnconfigured(Set<String> configuredClouds) throws InterruptedException {
+		final Iterator<Map.Entry<String, WarmPool>> entries = POOLS.entrySet().iterator();
+		while (entries.hasNext()) {
+			final Map.Entry<String, WarmPool> entry = entries.next();
+			if (configuredClouds.contains(entry.getKey())) {
+				continue;
+			}
+			entries.remove();
+			for (ConcurrentLinkedQueue<StartedContainer> containers : entry.getValue().idle.values()) {
+				StartedContainer container;
+				while ((container = containers.poll()) != null) {
+					LOGGER.info("Removing standby container " + container.getId() + " of cloud '" + entry.getKey() + "', which is no longer configured.");
+					try {
+						DockerClientProvider.getClient(container.getEndpoint()).removeContainer(container.getId(), RemoveContainerParam.forceKill(true));
+					} catch (DockerException | DockerCertificateException e) {
+						LOGGER.log(Level.WARNING, "Could not remove standby container " + container.getId() + ". " + e.getMessage(), e);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Take a standby container for the image config on an endpoint. Only containers on the endpoint are taken, so the
+	 * node runs where its capacity was reserved.
+	 *
+	 * @return null if none are available.
+	 */
+	StartedContainer take(DockerCloud dockerCloud, DockerImage dockerImage, DockerEndpoint endpoint) {
+		final ConcurrentLinkedQueue<StartedContainer> containers = idle.get(dockerImage.getName());
+		if (containers == null) {
+			return null;
+		}
+		for (StartedContainer container : containers) {
+			if (!container.getEndpoint().getUri().equals(endpoint.getUri()) || !containers.remove(container)) {
+				// On another endpoint, or taken by someone else.
+				continue;
+			}
+			if (ContainerInventory.forEndpoint(dockerCloud, container.getEndpoint()).isRunning(container.getId())) {
+				return container;
+			}
+			LOGGER.info("Standby container " + container.getId() + " is no longer running. Discarding.");
+		}
+		return null;
+	}
+
+	/**
+	 * @return True if the container is one of the pool's standby containers.
+	 */
+	boolean holds(String containerId) {
+		for (ConcurrentLinkedQueue<StartedContainer> containers : idle.values()) {
+			for (StartedContainer container : containers) {
+				if (container.getId().equals(containerId)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	int getIdleCount(String imageName) {
+		final ConcurrentLinkedQueue<StartedContainer> containers = idle.get(imageName);
+		return containers == null ? 0 : containers.size();
+	}
+
+	/**
+	 * Top up the pool in the background.
+	 */
+	void refillLater(final DockerCloud dockerCloud) {
+		try {
+			ProvisioningExecutor.forCloud(dockerCloud).submit(Executors.callable(new Runnable() {
+				@Override
+				public void run() {
+					refill(dockerCloud);
+				}
+			}));
+		} catch (RejectedExecutionException e) {
+			LOGGER.fine("Provisioning queue is full. Standby containers will be added by the next maintenance run.");
+		}
+	}
+
+	/**
+	 * Remove expired and surplus standby containers, then top up the pool.
+	 */
+	void maintain(DockerCloud dockerCloud) {
+		reap(dockerCloud);
+		refill(dockerCloud);
+	}
+
+	private void reap(DockerCloud dockerCloud) {
+		for (Map.Entry<String, ConcurrentLinkedQueue<StartedContainer>> entry : idle.entrySet()) {
+			final DockerImage dockerImage = dockerCloud.getImage(entry.getKey());
+			final int minIdle = dockerImage == null ? 0 : dockerImage.getMinIdle();
+			final long ttl = dockerImage == null ? 0 : TimeUnit.MINUTES.toMillis(dockerImage.getIdleTTLMinutes());
+			int surplus = entry.getValue().size() - minIdle;
+
+			final Iterator<StartedContainer> iterator = entry.getValue().iterator();
+			while (iterator.hasNext()) {
+				final StartedContainer container = iterator.next();
+				final boolean expired = ttl > 0 && System.currentTimeMillis() - container.getStartedMillis() > ttl;
+				if ((expired || surplus > 0) && entry.getValue().remove(container)) {
+					surplus--;
+					LOGGER.info("Removing standby container " + container.getId() + " for image config '" + entry.getKey() + "'." + (expired ? " Idle TTL expired." : ""));
+					ContainerReaper.forCloud(dockerCloud).remove(dockerCloud, container.getEndpoint(), container.getId(), entry.getKey());
+				}
+			}
+		}
+	}
+
+	private void refill(DockerCloud dockerCloud) {
+		if (!refilling.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			for (DockerImage dockerImage : dockerCloud.getImages()) {
+				if (dockerImage.getMinIdle() > 0) {
+					refill(dockerCloud, dockerImage);
+				}
+			}
+		} finally {
+			refilling.set(false);
+		}
+	}
+
+	private void refill(DockerCloud dockerCloud, DockerImage dockerImage) {
+		ConcurrentLinkedQueue<StartedContainer> containers = idle.get(dockerImage.getName());
+		if (containers == null) {
+			idle.putIfAbsent(dockerImage.getName(), new ConcurrentLinkedQueue<StartedContainer>());
+			containers = idle.get(dockerImage.getName());
+		}
+
+		if (!CircuitBreaker.forImage(dockerCloud, dockerImage.getName()).isClosed()) {
+			// Standby containers are not used to probe a failing image config.
+			LOGGER.fine("Image config '" + dockerImage.getName() + "' is backing off after failures. Not adding standby containers.");
+			return;
+		}
+
+		try {
+			final List<EndpointLoad> loads = EndpointLoad.measure(dockerCloud);
+			final Map<DockerEndpoint, ProvisioningBatch> batches = new HashMap<DockerEndpoint, ProvisioningBatch>();
+			final CapacityReservations reservations = CapacityReservations.forCloud(dockerCloud);
+			while (containers.size() < dockerImage.getMinIdle()) {
+				final EndpointLoad load = EndpointLoad.leastLoaded(loads);
+				if (load == null) {
+					LOGGER.fine("No healthy endpoint with capacity left. Not adding standby containers for image config '" + dockerImage.getName() + "'.");
+					return;
+				}
+				final Reservation reservation = reservations.tryReserve(dockerCloud, load.getEndpoint(), dockerImage);
+				if (reservation == null) {
+					loads.remove(load);
+					continue;
+				}
+				final StartedContainer container;
+				try {
+					ProvisioningBatch batch = batches.get(load.getEndpoint());
+					if (batch == null) {
+						batch = new ProvisioningBatch(dockerCloud.getDockerClient(load.getEndpoint()), dockerCloud, load.getEndpoint(), dockerImage, true);
+						batches.put(load.getEndpoint(), batch);
+					}
+					load.add(dockerImage);
+					container = batch.startContainer();
+				} finally {
+					reservation.release();
+				}
+				LOGGER.info("Started standby container " + container.getId() + " for image config '" + dockerImage.getName() + "'.");
+				containers.add(container);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+			LOGGER.log(Level.WARNING, "Could not start standby container for image config '" + dockerImage.getName() + "' in cloud '" + cloudName + "'. " + e.getMessage(), e);
+		}
+	}
+
+}
@@ -0,0 +1,42 @@
+package com.github.kmbulebu.jenkins.plugins.dockercloud;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import hudson.slaves.Cloud;
+import jenkins.model.Jenkins;
+
+/**
+ * Periodically tops up each cloud's standby containers and removes the ones past their idle TTL.
+ */
+@Extension
+public class WarmPoolMaintenance extends AsyncPeriodicWork {
+
+	private static final String RECURRENCE_PERIOD_PROPERTY = WarmPoolMaintenance.class.getName() + ".recurrencePeriodMs";
+
+	public WarmPoolMaintenance() {
+		super("Docker warm pool maintenance");
+	}
+
+	@Override
+	public long getRecurrencePeriod() {
+		return Long.getLong(RECURRENCE_PERIOD_PROPERTY, TimeUnit.MINUTES.toMillis(1));
+	}
+
+	@Override
+	protected void execute(TaskListener listener) throws IOException, InterruptedException {
+		final Jenkins jenkins = Jenkins.getInstance();
+		if (jenkins == null) {
+			return;
+		}
+		for (Cloud cloud : jenkins.clouds) {
+			if (cloud instanceof DockerCloud) {
+				WarmPool.forCloud((DockerCloud) cloud).maintain((DockerCloud) cloud);
+			}
+		}
+	}
+
+}